@@ -9,6 +9,8 @@ import java.util.Set;
  * <p>
  * It is better to use an atlas when using many small textures, rather than storing each of them in a different texture object. For example in a tile-based game with small tiles, you should use a texture atlas.
  * <p>
+ * Each image is stored in its own layer of an array texture, so the number of images isn't limited by the maximum texture size of the GPU, and all images of an Atlas are drawn without switching textures. Atlases of more images than the GPU supports layers (at least 256, usually 2048) store their images side by side in a single wide texture instead.
+ * <p>
  * To create an Atlas, use {@link #createAtlas(int, int, int, boolean)}. To add an image to an atlas (and upload to the GPU), use {@link #uploadImage(Image)}.
  *
  * @see #createAtlas(int, int, int, boolean)
@@ -22,16 +24,19 @@ public final class Atlas {
   final int texture;
   final int n;
   final boolean ignoreAlpha;
+  // whether each image is a layer of an array texture, rather than a slice of a wide texture
+  final boolean array;
   final Set<Integer> children = new HashSet<>();
   boolean destroyed;
   int hint = 0;
   
-  Atlas(int width, int height, int texture, int n, boolean ignoreAlpha) {
+  Atlas(int width, int height, int texture, int n, boolean ignoreAlpha, boolean array) {
     this.width = width;
     this.height = height;
     this.texture = texture;
     this.n = n;
     this.ignoreAlpha = ignoreAlpha;
+    this.array = array;
   }
   
   /**
@@ -56,6 +61,24 @@ public final class Atlas {
    */
   public AtlasTexture uploadImage(Image image) {
     Objects.requireNonNull(image);
+    return Ui.getUi().getWindow().uploadAtlasImage(this, image, allocate(image));
+  }
+  
+  /**
+   * Adds an image to this Atlas and uploads it to the GPU asynchronously.
+   * <p>
+   * Unlike {@link #uploadImage(Image)}, this method doesn't wait for the transfer of the image to the GPU; the returned texture can be drawn as soon as {@link Texture#isReady()} returns true. See {@link Image#uploadAsync()}.
+   *
+   * @param image The image to add to this Atlas (must have the same width, height, and ignoreAlpha as the atlas), must not be null.
+   * @return A texture object representing the image in this Atlas, to be used to draw the image with the various draw functions once ready.
+   * @see Image#uploadAsync()
+   */
+  public AtlasTexture uploadImageAsync(Image image) {
+    Objects.requireNonNull(image);
+    return Ui.getUi().getWindow().uploadAtlasImageAsync(this, image, allocate(image));
+  }
+  
+  private int allocate(Image image) {
     if (image.ignoreAlpha != ignoreAlpha) {
       throw new RuntimeException("Image and atlas must have the same ignoreAlpha!");
     }
@@ -66,17 +89,17 @@ public final class Atlas {
       throw new RuntimeException("Atlas is full!");
     }
     if (hint >= 0) {
-      children.add(hint);
-      AtlasTexture atlasTexture = Ui.getUi().getWindow().uploadAtlasImage(this, image, hint);
+      int i = hint;
+      children.add(i);
       if (++hint >= n) {
         hint = -1;
       }
-      return atlasTexture;
+      return i;
     }
     for (int i = 0; i < n; i++) {
       if (!children.contains(i)) {
-        children.add(hint);
-        return Ui.getUi().getWindow().uploadAtlasImage(this, image, i);
+        children.add(i);
+        return i;
       }
     }
     throw new RuntimeException("Shouldn't happen!");
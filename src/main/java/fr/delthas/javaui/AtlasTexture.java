@@ -3,6 +3,8 @@ package fr.delthas.javaui;
 final class AtlasTexture implements Texture {
   final Atlas atlas;
   final int i;
+  // false until an asynchronous upload completes
+  boolean ready = true;
   boolean destroyed = false;
   
   AtlasTexture(Atlas atlas, int i) {
@@ -15,9 +17,17 @@ final class AtlasTexture implements Texture {
       return;
     }
     destroyed = true;
+    Ui.getUi().getWindow().cancelUpload(this);
     atlas.destroyImage(i);
   }
   
+  public boolean isReady() {
+    if (!ready && !destroyed) {
+      Ui.getUi().getWindow().pollUpload(this);
+    }
+    return ready && !destroyed;
+  }
+  
   public int getWidth() {
     return atlas.width;
   }
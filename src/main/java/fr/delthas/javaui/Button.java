@@ -13,6 +13,7 @@ import java.util.Objects;
 public final class Button extends Component {
   private String text = "";
   private boolean down = false;
+  private boolean hovered = false;
   private Listener listener;
   /**
    * Creates a button (enabled), with an empty text.
@@ -51,14 +52,26 @@ public final class Button extends Component {
     if (isEnabled() && down && isInBounds(x, y)) {
       if (!this.down) {
         this.down = true;
+        markDirty();
         if (listener != null) {
           listener.buttonPressed(this, x, y);
         }
       }
       return true;
     }
-    if (!down) {
+    if (!down && this.down) {
       this.down = false;
+      markDirty();
+    }
+    return false;
+  }
+  
+  @Override
+  protected boolean pushMouseMove(double x, double y, long time) {
+    boolean hovered = isInBounds(x, y);
+    if (this.hovered != hovered) {
+      this.hovered = hovered;
+      markDirty();
     }
     return false;
   }
@@ -77,6 +90,7 @@ public final class Button extends Component {
    */
   public void setText(String text) {
     this.text = Objects.requireNonNull(text);
+    markDirty();
   }
   
   /**
@@ -11,6 +11,7 @@ public final class Checkbox extends Component {
   private String text = "";
   private boolean down = false;
   private boolean checked = false;
+  private boolean hovered = false;
   private Listener listener;
   
   /**
@@ -57,14 +58,26 @@ public final class Checkbox extends Component {
       if (!this.down) {
         this.down = true;
         checked = !checked;
+        markDirty();
         if (listener != null) {
           listener.checkboxPressed(this, x, y);
         }
       }
       return true;
     }
-    if (!down) {
+    if (!down && this.down) {
       this.down = false;
+      markDirty();
+    }
+    return false;
+  }
+  
+  @Override
+  protected boolean pushMouseMove(double x, double y, long time) {
+    boolean hovered = isInBounds(x, y);
+    if (this.hovered != hovered) {
+      this.hovered = hovered;
+      markDirty();
     }
     return false;
   }
@@ -83,6 +96,7 @@ public final class Checkbox extends Component {
    */
   public void setText(String text) {
     this.text = text;
+    markDirty();
   }
   
   /**
@@ -98,7 +112,10 @@ public final class Checkbox extends Component {
    * @param checked true if the checkbox is to be set to the checked state, false otherwise.
    */
   public void setChecked(boolean checked) {
-    this.checked = checked;
+    if (this.checked != checked) {
+      this.checked = checked;
+      markDirty();
+    }
   }
   
   /**
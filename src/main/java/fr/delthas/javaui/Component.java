@@ -234,7 +234,24 @@ public class Component {
    * @param enabled true if the component to be enabled, false otherwise.
    */
   public void setEnabled(boolean enabled) {
-    this.enabled = enabled;
+    if (this.enabled != enabled) {
+      this.enabled = enabled;
+      markDirty();
+    }
+  }
+  
+  /**
+   * Marks the component as dirty, that is notifies the UI system that the rendering of the component has changed, so that it is redrawn.
+   * <p>
+   * This must be called whenever some state that changes what {@link #render(InputState, Drawer)} draws changes (for example some text, or whether the mouse hovers the component), when using damage tracking (see {@link Ui#setDamageTracking(boolean)}), or when the component is in a recorded layer (see {@link Layer#setRecorded(boolean)}). All built-in components call it automatically when their state changes.
+   * <p>
+   * If the component isn't currently attached to a layer, this is a no-op.
+   */
+  public void markDirty() {
+    if (layer == null) {
+      return;
+    }
+    layer.markDirty(x, y, width, height);
   }
   
   /**
@@ -0,0 +1,127 @@
+package fr.delthas.javaui;
+
+import fr.delthas.javaui.GlyphRunCache.GlyphRun;
+
+import java.util.Arrays;
+
+/**
+ * Compact list of recorded draw commands, that can be replayed by the Window without running the code that issued them.
+ * <p>
+ * Commands are stored after translation, centering and text layout, so replaying them only copies their data to the current batch. Each command is an op, followed by a fixed number of arguments and references for that op.
+ */
+final class DrawList {
+  // args: x, y, width, height, angle, color
+  static final int RECTANGLE = 0;
+  // args: x, y, radius, squared inner radius ratio, color
+  static final int RING = 1;
+  // refs: texture; args: x, y, width, height, s1, t1, s2, t2, angle, alpha
+  static final int IMAGE = 2;
+  // refs: glyph run; args: x, y, color
+  static final int TEXT = 3;
+  // args: color
+  static final int COLOR = 4;
+  // args: min x, min y, max x, max y
+  static final int PUSH_CLIP = 5;
+  static final int POP_CLIP = 6;
+  // number of arguments and references of each op
+  static final int[] ARGS = {6, 5, 10, 3, 1, 4, 0};
+  static final int[] REFS = {0, 0, 1, 1, 0, 0, 0};
+  
+  int[] ops = new int[64];
+  int opCount;
+  double[] args = new double[256];
+  int argCount;
+  Object[] refs = new Object[16];
+  int refCount;
+  boolean valid;
+  // generation of the window that recorded this list, because GL objects don't survive the window
+  int generation;
+  
+  void clear() {
+    opCount = 0;
+    argCount = 0;
+    Arrays.fill(refs, 0, refCount, null);
+    refCount = 0;
+    valid = false;
+  }
+  
+  void rectangle(double x, double y, double width, double height, double angle, int rgb) {
+    op(RECTANGLE);
+    arg(x);
+    arg(y);
+    arg(width);
+    arg(height);
+    arg(angle);
+    arg(rgb);
+  }
+  
+  void ring(double x, double y, double radius, float minLength, int rgb) {
+    op(RING);
+    arg(x);
+    arg(y);
+    arg(radius);
+    arg(minLength);
+    arg(rgb);
+  }
+  
+  void image(double x, double y, double width, double height, double s1, double t1, double s2, double t2, Texture texture, double angle, double alpha) {
+    op(IMAGE);
+    ref(texture);
+    arg(x);
+    arg(y);
+    arg(width);
+    arg(height);
+    arg(s1);
+    arg(t1);
+    arg(s2);
+    arg(t2);
+    arg(angle);
+    arg(alpha);
+  }
+  
+  void text(GlyphRun run, double x, double y, int rgb) {
+    op(TEXT);
+    ref(run);
+    arg(x);
+    arg(y);
+    arg(rgb);
+  }
+  
+  void color(int rgb) {
+    op(COLOR);
+    arg(rgb);
+  }
+  
+  void pushClip(int minX, int minY, int maxX, int maxY) {
+    op(PUSH_CLIP);
+    arg(minX);
+    arg(minY);
+    arg(maxX);
+    arg(maxY);
+  }
+  
+  void popClip() {
+    op(POP_CLIP);
+  }
+  
+  void op(int op) {
+    if (opCount == ops.length) {
+      ops = Arrays.copyOf(ops, ops.length * 2);
+    }
+    ops[opCount++] = op;
+  }
+  
+  void arg(double arg) {
+    if (argCount == args.length) {
+      args = Arrays.copyOf(args, args.length * 2);
+    }
+    args[argCount++] = arg;
+  }
+  
+  void ref(Object ref) {
+    if (refCount == refs.length) {
+      refs = Arrays.copyOf(refs, refs.length * 2);
+    }
+    refs[refCount++] = ref;
+  }
+}
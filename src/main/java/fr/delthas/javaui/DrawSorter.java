@@ -0,0 +1,114 @@
+package fr.delthas.javaui;
+
+import java.util.Arrays;
+
+/**
+ * Reorders queued draws into groups of draws that share the same pipeline state, without changing the rendered result.
+ * <p>
+ * Draws are assigned to buckets in submission order. A draw joins the latest bucket with the same state if it doesn't overlap any draw of the buckets after it, which are drawn later; otherwise it starts a new bucket. Since a draw only ever moves before draws it doesn't overlap, the result is identical to painter's order. Buckets are then drawn in order.
+ */
+final class DrawSorter {
+  // how many buckets are searched back for a bucket with the same state
+  private static final int LOOKBACK = 32;
+  
+  final DrawList commands = new DrawList();
+  // per queued draw
+  private int[] argStart = new int[64];
+  private int[] refStart = new int[64];
+  private int[] next = new int[64];
+  // per bucket
+  private int bucketCount;
+  private int[] bucketKind = new int[16];
+  private int[] bucketTexture = new int[16];
+  private int[] bucketHead = new int[16];
+  private int[] bucketTail = new int[16];
+  private double[] bucketBounds = new double[16 * 4];
+  
+  boolean isEmpty() {
+    return commands.opCount == 0;
+  }
+  
+  /**
+   * Queues a draw with the specified state and screen bounds, whose op and arguments must be written to {@link #commands} right after this call.
+   */
+  void add(int kind, int texture, double minX, double minY, double maxX, double maxY) {
+    int op = commands.opCount;
+    if (op == argStart.length) {
+      argStart = Arrays.copyOf(argStart, op * 2);
+      refStart = Arrays.copyOf(refStart, op * 2);
+      next = Arrays.copyOf(next, op * 2);
+    }
+    argStart[op] = commands.argCount;
+    refStart[op] = commands.refCount;
+    next[op] = -1;
+    int target = -1;
+    for (int i = bucketCount - 1; i >= 0 && i >= bucketCount - LOOKBACK; i--) {
+      if (bucketKind[i] == kind && bucketTexture[i] == texture) {
+        target = i;
+        break;
+      }
+      if (overlaps(i, minX, minY, maxX, maxY)) {
+        break;
+      }
+    }
+    if (target == -1) {
+      target = bucketCount++;
+      if (target == bucketKind.length) {
+        bucketKind = Arrays.copyOf(bucketKind, target * 2);
+        bucketTexture = Arrays.copyOf(bucketTexture, target * 2);
+        bucketHead = Arrays.copyOf(bucketHead, target * 2);
+        bucketTail = Arrays.copyOf(bucketTail, target * 2);
+        bucketBounds = Arrays.copyOf(bucketBounds, target * 2 * 4);
+      }
+      bucketKind[target] = kind;
+      bucketTexture[target] = texture;
+      bucketHead[target] = op;
+      bucketBounds[target * 4] = minX;
+      bucketBounds[target * 4 + 1] = minY;
+      bucketBounds[target * 4 + 2] = maxX;
+      bucketBounds[target * 4 + 3] = maxY;
+    } else {
+      next[bucketTail[target]] = op;
+      bucketBounds[target * 4] = Math.min(bucketBounds[target * 4], minX);
+      bucketBounds[target * 4 + 1] = Math.min(bucketBounds[target * 4 + 1], minY);
+      bucketBounds[target * 4 + 2] = Math.max(bucketBounds[target * 4 + 2], maxX);
+      bucketBounds[target * 4 + 3] = Math.max(bucketBounds[target * 4 + 3], maxY);
+    }
+    bucketTail[target] = op;
+  }
+  
+  private boolean overlaps(int bucket, double minX, double minY, double maxX, double maxY) {
+    return minX < bucketBounds[bucket * 4 + 2] && bucketBounds[bucket * 4] < maxX && minY < bucketBounds[bucket * 4 + 3] && bucketBounds[bucket * 4 + 1] < maxY;
+  }
+  
+  int getBucketCount() {
+    return bucketCount;
+  }
+  
+  /**
+   * Returns the first queued draw of a bucket; the following ones are obtained with {@link #getNext(int)}.
+   */
+  int getHead(int bucket) {
+    return bucketHead[bucket];
+  }
+  
+  /**
+   * Returns the next queued draw of the same bucket, or -1.
+   */
+  int getNext(int op) {
+    return next[op];
+  }
+  
+  int getArgStart(int op) {
+    return argStart[op];
+  }
+  
+  int getRefStart(int op) {
+    return refStart[op];
+  }
+  
+  void clear() {
+    commands.clear();
+    bucketCount = 0;
+  }
+}
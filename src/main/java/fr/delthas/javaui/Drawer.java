@@ -1,6 +1,8 @@
 package fr.delthas.javaui;
 
 import java.awt.*;
+import java.nio.FloatBuffer;
+import java.util.Objects;
 
 /**
  * Drawer is an interface on which to draw a component, to be called from a component {@link Component#render(InputState, Drawer)} method.
@@ -593,14 +595,16 @@ public abstract class Drawer {
   /**
    * TextBuilder is a Builder-like interface that lets you specify various text-related parameters and draw text with {@link #draw()}.
    * <p>
-   * This will only render a single line of text without line feeds, additionally not all Unicode characters are supported (please open an issue if you need more characters).
+   * This will only render a single line of text without line feeds, characters that the font doesn't have are drawn as its missing glyph.
    * <p>
    * Note that, for performance, the instance returned by {@link Drawer#text(double, double, String, Font, double)} may be the same between calls, and that the Builder-like pattern may be internally emulated by simply resetting the object between calls to {@link Drawer#text(double, double, String, Font, double)}.
+   * <p>
+   * Drawing text allocates nothing once its glyphs are rasterized, when drawn with {@link #draw()} or {@link #drawGetPositions(float[])}: a {@link String} is laid out once and its layout is cached, any other {@link CharSequence}, such as a reused {@link StringBuilder}, is laid out on each draw without allocating.
    */
   public static final class TextBuilder {
     private double x;
     private double y;
-    private String text;
+    private CharSequence text;
     private Font font;
     private double size;
     private boolean xCentered;
@@ -609,7 +613,7 @@ public abstract class Drawer {
     
     private static final TextBuilder INSTANCE = new TextBuilder();
     
-    private static TextBuilder get(double x, double y, String text, Font font, double size) {
+    private static TextBuilder get(double x, double y, CharSequence text, Font font, double size) {
       INSTANCE.x = x;
       INSTANCE.y = y;
       INSTANCE.text = text;
@@ -662,7 +666,43 @@ public abstract class Drawer {
      * @see #draw()
      */
     public float[] drawGetPositions() {
-      return DRAWER.drawText(x, y, text, font, size, xCentered, yCentered, color);
+      float[] positions = new float[text.length() + 1];
+      DRAWER.drawText(x, y, text, font, size, xCentered, yCentered, color, positions, null);
+      return positions;
+    }
+    
+    /**
+     * Draws the text, with the specified information passed in previous Builder calls, writes the positions of all characters in the text, followed by the text bounds width, to the specified array, and returns the text bounds width.
+     * <p>
+     * This is the same as {@link #drawGetPositions()}, except that the positions are written to a caller-supplied array, which can be reused between calls to avoid allocating.
+     * <p>
+     * To draw another text, call {@link Drawer#text(double, double, String, Font, double)} again.
+     *
+     * @param positions The array to write the {@code text.length() + 1} positions to, starting at index 0, must be non-null and of length at least {@code text.length() + 1}.
+     * @return The text bounds width, that is how much to advance the x position, if drawing some text just after the one that was drawn.
+     * @throws IllegalArgumentException If the array is too small.
+     * @see #drawGetPositions()
+     */
+    public float drawGetPositions(float[] positions) {
+      Objects.requireNonNull(positions);
+      return DRAWER.drawText(x, y, text, font, size, xCentered, yCentered, color, positions, null);
+    }
+    
+    /**
+     * Draws the text, with the specified information passed in previous Builder calls, writes the positions of all characters in the text, followed by the text bounds width, to the specified buffer, and returns the text bounds width.
+     * <p>
+     * The positions are written with absolute puts starting at the current position of the buffer, which is left unchanged.
+     * <p>
+     * To draw another text, call {@link Drawer#text(double, double, String, Font, double)} again.
+     *
+     * @param positions The buffer to write the {@code text.length() + 1} positions to, must be non-null and have at least {@code text.length() + 1} floats remaining.
+     * @return The text bounds width, that is how much to advance the x position, if drawing some text just after the one that was drawn.
+     * @throws IllegalArgumentException If the buffer is too small.
+     * @see #drawGetPositions(float[])
+     */
+    public float drawGetPositions(FloatBuffer positions) {
+      Objects.requireNonNull(positions);
+      return DRAWER.drawText(x, y, text, font, size, xCentered, yCentered, color, null, positions);
     }
     
     /**
@@ -676,8 +716,52 @@ public abstract class Drawer {
      * @see #drawGetPositions()
      */
     public float draw() {
-      float[] positions = drawGetPositions();
-      return positions[positions.length - 1];
+      return DRAWER.drawText(x, y, text, font, size, xCentered, yCentered, color, null, null);
+    }
+    
+  }
+  
+  /**
+   * ParagraphBuilder is a Builder-like interface that lets you specify various paragraph-related parameters and draw a {@link TextLayout} with {@link #draw()}.
+   * <p>
+   * Note that, for performance, the instance returned by {@link Drawer#paragraph(double, double, TextLayout)} may be the same between calls, and that the Builder-like pattern may be internally emulated by simply resetting the object between calls to {@link Drawer#paragraph(double, double, TextLayout)}.
+   */
+  public static final class ParagraphBuilder {
+    private double x;
+    private double y;
+    private TextLayout layout;
+    private Color color;
+    
+    private static final ParagraphBuilder INSTANCE = new ParagraphBuilder();
+    
+    private static ParagraphBuilder get(double x, double y, TextLayout layout) {
+      INSTANCE.x = x;
+      INSTANCE.y = y;
+      INSTANCE.layout = layout;
+      INSTANCE.color = null;
+      return INSTANCE;
+    }
+    
+    /**
+     * Sets the color of the paragraph to be drawn.
+     * <p>
+     * If set to null, the default color will be used. By default this parameter is null, and the paragraph will be drawn with the default color.
+     *
+     * @param color   The color to use to draw the paragraph, or null to use the default color.
+     * @return Self, for chaining.
+     */
+    public ParagraphBuilder color(Color color) {
+      this.color = color;
+      return this;
+    }
+    
+    /**
+     * Draws the paragraph, with the specified information passed in previous Builder calls.
+     * <p>
+     * To draw another paragraph, call {@link Drawer#paragraph(double, double, TextLayout)} again.
+     */
+    public void draw() {
+      DRAWER.drawParagraph(x, y, layout, color);
     }
     
   }
@@ -710,6 +794,31 @@ public abstract class Drawer {
    */
   public abstract void popTranslate();
   
+  /**
+   * Pushes a clip rectangle onto the clip stack.
+   * <p>
+   * All draws made with this Drawer object or its inner Builder classes will only change the pixels inside the intersection of all clip rectangles stored on the clip stack. Draws that fall entirely outside of the current clip rectangle, or outside the screen, are skipped before doing any work, so components may for example push their own bounds as a clip rectangle and draw a long scrolling list without paying for its invisible part.
+   * <p>
+   * <b>For each {@link #pushClip(double, double, double, double)} method call during a {@link Component#render(InputState, Drawer)} call, there MUST BE EXACTLY ONE {@link #popClip()} CALL, NO MORE, NO LESS.</b>
+   *
+   * @param x      The x coordinate of the lower-left corner of the clip rectangle, adjusted by the translation stack.
+   * @param y      The y coordinate of the lower-left corner of the clip rectangle, adjusted by the translation stack.
+   * @param width  The width of the clip rectangle.
+   * @param height The height of the clip rectangle.
+   * @see #popClip()
+   */
+  public abstract void pushClip(double x, double y, double width, double height);
+  
+  /**
+   * Pops a clip rectangle from the clip stack.
+   * <p>
+   * See {@link #pushClip(double, double, double, double)} for an explanation of the clip stack. <b>For each {@link #pushClip(double, double, double, double)} method call during a {@link Component#render(InputState, Drawer)} call, there MUST BE EXACTLY ONE {@link #popClip()} CALL, NO MORE, NO LESS.</b>
+   *
+   * @throws IllegalStateException If the clip stack is empty.
+   * @see #pushClip(double, double, double, double)
+   */
+  public abstract void popClip();
+  
   /**
    * Returns an {@link ImageBuilder} to draw the specified image at the specified coordinates.
    * <p>
@@ -852,6 +961,40 @@ public abstract class Drawer {
     return TextBuilder.get(x, y, text, font, size);
   }
   
+  /**
+   * Returns a {@link TextBuilder} to draw a single line of text, from any character sequence.
+   * <p>
+   * This is the same as {@link #text(double, double, String, Font, double)}, except that the text isn't copied: a mutable sequence such as a {@link StringBuilder} can be reused and drawn each frame without allocating. The sequence must not be modified until the text is drawn.
+   *
+   * @param x      The x coordinate of the text, adjusted by the translation stack.
+   * @param y      The y coordinate of the text, adjusted by the translation stack.
+   * @param text The text to draw, must be non-null, drawing an empty sequence is a no-op.
+   * @param font The font of the text, must be non-null.
+   * @param size The font size of the text, in pt.
+   * @return A {@link TextBuilder} to draw the specified text.
+   * @see TextBuilder
+   */
+  public TextBuilder text(double x, double y, CharSequence text, Font font, double size) {
+    return TextBuilder.get(x, y, text, font, size);
+  }
+  
+  /**
+   * Returns a {@link ParagraphBuilder} to draw a paragraph of text laid out in lines by a {@link TextLayout}.
+   * <p>
+   * See the methods on {@link ParagraphBuilder} to know what various parameters you can set.
+   * <p>
+   * The x and y coordinates specify the upper-left corner of the layout box: the first line is drawn below y, and lines are placed horizontally in the box according to the layout alignment.
+   *
+   * @param x      The x coordinate of the left of the layout box, adjusted by the translation stack.
+   * @param y      The y coordinate of the top of the layout box, adjusted by the translation stack.
+   * @param layout The laid out paragraph to draw, must be non-null.
+   * @return A {@link ParagraphBuilder} to draw the specified paragraph.
+   * @see TextLayout
+   */
+  public ParagraphBuilder paragraph(double x, double y, TextLayout layout) {
+    return ParagraphBuilder.get(x, y, layout);
+  }
+  
   protected abstract void drawLineCenter(double x, double y, double length, double angle, Color color);
   
   protected abstract void fillRing(double x, double y, double radius, double width, Color color);
@@ -860,7 +1003,21 @@ public abstract class Drawer {
   
   protected abstract void drawImage(double x, double y, double width, double height, double s1, double t1, double s2, double t2, Texture texture, double angle, double alpha);
   
-  protected abstract float[] drawText(double x, double y, String text, Font font, double size, boolean xCentered, boolean yCentered, Color color);
+  protected abstract float drawText(double x, double y, CharSequence text, Font font, double size, boolean xCentered, boolean yCentered, Color color, float[] positions, FloatBuffer positionsBuffer);
+  
+  protected abstract void drawParagraph(double x, double y, TextLayout layout, Color color);
+  
+  abstract void startRecording(DrawList list);
+  
+  abstract void stopRecording();
+  
+  abstract boolean replay(DrawList list);
+  
+  abstract void startCache(LayerCache cache);
+  
+  abstract void stopCache();
+  
+  abstract boolean drawCache(LayerCache cache);
   
   
   /**
@@ -889,6 +1046,17 @@ public abstract class Drawer {
    */
   public abstract FontMetrics getFontMetrics(Font font, float size);
   
+  /**
+   * Writes the font metrics for a specified font and font size to the specified array, without allocating: the ascent, the descent and the line gap, in that order, as returned by {@link FontMetrics#getAscent()}, {@link FontMetrics#getDescent()} and {@link FontMetrics#getLineGap()}.
+   * <p>
+   * Only as many metrics as fit in the array are written.
+   *
+   * @param font    The font for which to get the metrics, must be non-null.
+   * @param size    The font size for which to get the metrics, in pt.
+   * @param metrics The array to write the metrics to, must be non-null.
+   */
+  public abstract void getFontMetrics(Font font, float size, float[] metrics);
+  
   /**
    * Returns the width, in pixels, of the specified text, if it were to be drawn with the specified font and font size, that is the "x" length from the start position of the first character of the text, to the start position for the (hypothetical) next character after the last character of the text.
    *
@@ -917,6 +1085,46 @@ public abstract class Drawer {
    */
   public abstract float[] getTextPositions(String text, Font font, float size);
   
+  /**
+   * Returns the width, in pixels, of the specified text, if it were to be drawn with the specified font and font size.
+   * <p>
+   * This is the same as {@link #getTextWidth(String, Font, float)}, except that any character sequence can be measured, without allocating.
+   *
+   * @param text The text to get the width of, must be non-null.
+   * @param font The font for which to get the width of the text, must be non-null.
+   * @param size The font size for which to get the width of the text, in pt.
+   * @return The width of the specified text, in the specified font and font size, in pixels.
+   */
+  public abstract float getTextWidth(CharSequence text, Font font, float size);
+  
+  /**
+   * Writes the positions of all characters in the text, would they be drawn with the specified font and font size, followed by the total width of the text, to the specified array, and returns the total width of the text.
+   * <p>
+   * This is the same as {@link #getTextPositions(String, Font, float)}, except that any character sequence can be measured and that the positions are written to a caller-supplied array, which can be reused between calls to avoid allocating.
+   *
+   * @param text      The text whose characters to get the positions of, must be non-null.
+   * @param font      The font for which to get the positions of the characters in the text, must be non-null.
+   * @param size      The font size for which to get the positions of the characters in the text.
+   * @param positions The array to write the {@code text.length() + 1} positions to, starting at index 0, must be non-null and of length at least {@code text.length() + 1}.
+   * @return The total width of the text, in pixels.
+   * @throws IllegalArgumentException If the array is too small.
+   */
+  public abstract float getTextPositions(CharSequence text, Font font, float size, float[] positions);
+  
+  /**
+   * Writes the positions of all characters in the text, would they be drawn with the specified font and font size, followed by the total width of the text, to the specified buffer, and returns the total width of the text.
+   * <p>
+   * The positions are written with absolute puts starting at the current position of the buffer, which is left unchanged.
+   *
+   * @param text      The text whose characters to get the positions of, must be non-null.
+   * @param font      The font for which to get the positions of the characters in the text, must be non-null.
+   * @param size      The font size for which to get the positions of the characters in the text.
+   * @param positions The buffer to write the {@code text.length() + 1} positions to, must be non-null and have at least {@code text.length() + 1} floats remaining.
+   * @return The total width of the text, in pixels.
+   * @throws IllegalArgumentException If the buffer is too small.
+   */
+  public abstract float getTextPositions(CharSequence text, Font font, float size, FloatBuffer positions);
+  
   
   /**
    * Sets the default color of the {@link Drawer} to be used for the rendering of geometric shapes and text.
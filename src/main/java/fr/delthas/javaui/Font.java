@@ -1,7 +1,5 @@
 package fr.delthas.javaui;
 
-import java.awt.*;
-
 /**
  * Font represents a common font, which is an object that can specify, for a specified font size, what all the glyphs (graphical representations) for the characters are, and what size they take, as well as some metrics such as line height.
  * <p>
@@ -10,7 +8,8 @@ import java.awt.*;
  * The "bold" and "italics" vesions of a font are considered as different fonts objects, since they barely share any glyphs. For example, Times New Roman is a font, Times New Roman Bold is another font.
  *
  * @see Drawer
- * @see Drawer#drawText(double, double, String, Font, double, boolean, boolean, Color)
+ * @see Drawer#text(double, double, String, Font, double)
+ * @see FontMetrics
  */
 public enum Font {
   
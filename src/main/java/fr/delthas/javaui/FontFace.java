@@ -0,0 +1,149 @@
+package fr.delthas.javaui;
+
+import org.lwjgl.stb.STBTTFontinfo;
+import org.lwjgl.system.MemoryStack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.security.MessageDigest;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.lwjgl.stb.STBTruetype.*;
+import static org.lwjgl.system.MemoryStack.stackPush;
+
+/**
+ * A loaded font file: its data, its stb_truetype font info, and its unscaled vertical metrics.
+ * <p>
+ * Faces are loaded on first use and kept for the lifetime of the application; they don't depend on the GL context. Their metrics methods only read the font data, and can be called from any thread.
+ */
+final class FontFace {
+  // codepoints below this have their advance looked up when the face is loaded
+  private static final int CACHED_ADVANCES = 0x250;
+  // pairs of printable ASCII characters have their kerning looked up when the face is loaded
+  private static final int KERNING_FIRST = 32;
+  private static final int KERNING_COUNT = 127 - KERNING_FIRST;
+  
+  private static final AtomicReferenceArray<FontFace> faces = new AtomicReferenceArray<>(Font.values().length);
+  private static final Object lock = new Object();
+  
+  final Font font;
+  // kept referenced, the font info points into it
+  private final ByteBuffer data;
+  final STBTTFontinfo info;
+  // unscaled, in font units
+  final int ascent;
+  final int descent;
+  final int lineGap;
+  // unscaled advances of the codepoints below CACHED_ADVANCES
+  private final int[] advances = new int[CACHED_ADVANCES];
+  // unscaled kerning of the pairs of printable ASCII characters, null if the font has none
+  private final short[] kerning;
+  // hash of the font file, computed on first use
+  private String hash;
+  
+  private FontFace(Font font, ByteBuffer data) {
+    this.font = font;
+    this.data = data;
+    info = STBTTFontinfo.malloc();
+    if (!stbtt_InitFont(info, data)) {
+      info.free();
+      throw new RuntimeException("Couldn't load font: " + font);
+    }
+    int[] ascent = new int[1];
+    int[] descent = new int[1];
+    int[] lineGap = new int[1];
+    stbtt_GetFontVMetrics(info, ascent, descent, lineGap);
+    this.ascent = ascent[0];
+    this.descent = descent[0];
+    this.lineGap = lineGap[0];
+    int[] advance = new int[1];
+    for (int c = 0; c < CACHED_ADVANCES; c++) {
+      stbtt_GetCodepointHMetrics(info, c, advance, null);
+      advances[c] = advance[0];
+    }
+    // fonts that kern, kern Latin letters: a font without kerning between ASCII characters is considered without kerning
+    short[] kerning = new short[KERNING_COUNT * KERNING_COUNT];
+    boolean kerned = false;
+    for (int i = 0; i < KERNING_COUNT; i++) {
+      for (int j = 0; j < KERNING_COUNT; j++) {
+        kerning[i * KERNING_COUNT + j] = (short) stbtt_GetCodepointKernAdvance(info, KERNING_FIRST + i, KERNING_FIRST + j);
+        kerned |= kerning[i * KERNING_COUNT + j] != 0;
+      }
+    }
+    this.kerning = kerned ? kerning : null;
+  }
+  
+  /**
+   * Returns the face of the specified font, loading it if needed.
+   */
+  static FontFace get(Font font) {
+    FontFace face = faces.get(font.ordinal());
+    if (face != null) {
+      return face;
+    }
+    synchronized (lock) {
+      face = faces.get(font.ordinal());
+      if (face == null) {
+        ByteBuffer data;
+        try {
+          data = Utils.getResourceBuffer(font.getName() + ".ttf");
+        } catch (IOException e) {
+          throw new RuntimeException("Couldn't fetch font: " + font, e);
+        }
+        face = new FontFace(font, data);
+        faces.set(font.ordinal(), face);
+      }
+      return face;
+    }
+  }
+  
+  /**
+   * Returns a hash of the font file, identifying it in the glyph disk cache. It is computed on first use, by the glyph rasterizer threads since it reads the whole file.
+   */
+  synchronized String getHash() {
+    if (hash == null) {
+      MessageDigest digest = Utils.getDigest();
+      digest.update(data.duplicate());
+      hash = Utils.toHex(digest.digest());
+    }
+    return hash;
+  }
+  
+  /**
+   * Returns the scale from font units to pixels for a font size, which is the height from the descent to the ascent, in pixels.
+   */
+  float getScale(float size) {
+    // same as stbtt_ScaleForPixelHeight
+    return size / (ascent - descent);
+  }
+  
+  /**
+   * Returns the unscaled advance of a codepoint, in font units.
+   */
+  int getAdvance(int codepoint) {
+    if (codepoint >= 0 && codepoint < CACHED_ADVANCES) {
+      return advances[codepoint];
+    }
+    try (MemoryStack stack = stackPush()) {
+      IntBuffer advance = stack.mallocInt(1);
+      stbtt_GetCodepointHMetrics(info, codepoint, advance, null);
+      return advance.get(0);
+    }
+  }
+  
+  /**
+   * Returns the unscaled kerning between two consecutive codepoints, in font units, to be added to the advance of the first one.
+   */
+  int getKerning(int first, int second) {
+    if (kerning == null) {
+      return 0;
+    }
+    int i = first - KERNING_FIRST;
+    int j = second - KERNING_FIRST;
+    if (i >= 0 && i < KERNING_COUNT && j >= 0 && j < KERNING_COUNT) {
+      return kerning[i * KERNING_COUNT + j];
+    }
+    return stbtt_GetCodepointKernAdvance(info, first, second);
+  }
+}
@@ -1,9 +1,14 @@
 package fr.delthas.javaui;
 
+import java.nio.FloatBuffer;
+import java.util.Objects;
+
 /**
  * FontMetrics stores metrics relative to a font and font size, that may be useful to components that need to draw and process text.
  * <p>
  * All metrics are in pixels.
+ * <p>
+ * The static methods of this class measure text without the UI system: they don't need it to be created, don't use the GPU, and can be called from any thread, concurrently. They return the same widths and positions as the text measurement methods of {@link Drawer} and {@link Ui}, so that text can be laid out on worker threads, or in tests, and drawn later on the render thread. Advances include the kerning between consecutive characters, if the font has kerning.
  *
  * @see #getLineHeight()
  */
@@ -64,4 +69,188 @@ public class FontMetrics {
   public float getLineHeight() {
     return ascent - descent + lineGap;
   }
+  
+  /**
+   * Returns the font metrics for a specified font and font size (ascent, descent, line gap, line height).
+   * <p>
+   * This method doesn't need the UI system to be created, and can be called from any thread.
+   *
+   * @param font The font for which to get the metrics, must be non-null.
+   * @param size The font size for which to get the metrics, in pt.
+   * @return The font metrics for the specified font and font size.
+   */
+  public static FontMetrics get(Font font, float size) {
+    Objects.requireNonNull(font);
+    FontFace face = FontFace.get(font);
+    float scale = face.getScale(size);
+    return new FontMetrics(face.ascent * scale, face.descent * scale, face.lineGap * scale);
+  }
+  
+  /**
+   * Writes the font metrics for a specified font and font size to the specified array, without allocating: the ascent, the descent and the line gap, in that order.
+   * <p>
+   * Only as many metrics as fit in the array are written. This method doesn't need the UI system to be created, and can be called from any thread.
+   *
+   * @param font    The font for which to get the metrics, must be non-null.
+   * @param size    The font size for which to get the metrics, in pt.
+   * @param metrics The array to write the metrics to, must be non-null.
+   */
+  public static void get(Font font, float size, float[] metrics) {
+    Objects.requireNonNull(font);
+    Objects.requireNonNull(metrics);
+    if (metrics.length == 0) {
+      return;
+    }
+    FontFace face = FontFace.get(font);
+    float scale = face.getScale(size);
+    metrics[0] = face.ascent * scale;
+    if (metrics.length >= 2) {
+      metrics[1] = face.descent * scale;
+      if (metrics.length >= 3) {
+        metrics[2] = face.lineGap * scale;
+      }
+    }
+  }
+  
+  /**
+   * Returns the advance of a character for a specified font and font size, that is how much to move the x position after drawing it, in pixels, not counting kerning.
+   * <p>
+   * This method doesn't need the UI system to be created, and can be called from any thread.
+   *
+   * @param font      The font of the character, must be non-null.
+   * @param size      The font size of the character, in pt.
+   * @param codepoint The Unicode codepoint of the character.
+   * @return The advance of the character, in pixels.
+   * @see #getKerning(Font, float, int, int)
+   */
+  public static float getAdvance(Font font, float size, int codepoint) {
+    Objects.requireNonNull(font);
+    FontFace face = FontFace.get(font);
+    return face.getAdvance(codepoint) * face.getScale(size);
+  }
+  
+  /**
+   * Returns the kerning between two consecutive characters for a specified font and font size, that is how much to add to the advance of the first character when it is followed by the second one, in pixels.
+   * <p>
+   * The kerning is typically negative, for example between "A" and "V", and is 0 for most pairs of characters, and for all pairs if the font has no kerning.
+   * <p>
+   * This method doesn't need the UI system to be created, and can be called from any thread.
+   *
+   * @param font   The font of the characters, must be non-null.
+   * @param size   The font size of the characters, in pt.
+   * @param first  The Unicode codepoint of the first character.
+   * @param second The Unicode codepoint of the second character.
+   * @return The kerning between the characters, in pixels.
+   */
+  public static float getKerning(Font font, float size, int first, int second) {
+    Objects.requireNonNull(font);
+    FontFace face = FontFace.get(font);
+    return face.getKerning(first, second) * face.getScale(size);
+  }
+  
+  /**
+   * Returns the width, in pixels, of the specified text, if it were to be drawn with the specified font and font size, as returned by {@link Drawer#getTextWidth(CharSequence, Font, float)}.
+   * <p>
+   * This method doesn't need the UI system to be created, and can be called from any thread.
+   *
+   * @param text The text to get the width of, must be non-null.
+   * @param font The font for which to get the width of the text, must be non-null.
+   * @param size The font size for which to get the width of the text, in pt.
+   * @return The width of the specified text, in the specified font and font size, in pixels.
+   */
+  public static float getTextWidth(CharSequence text, Font font, float size) {
+    Objects.requireNonNull(text);
+    Objects.requireNonNull(font);
+    return layout(text, FontFace.get(font), size, null, null);
+  }
+  
+  /**
+   * Writes the positions of all characters in the text, would they be drawn with the specified font and font size, followed by the total width of the text, to the specified array, and returns the total width of the text, as done by {@link Drawer#getTextPositions(CharSequence, Font, float, float[])}.
+   * <p>
+   * This method doesn't need the UI system to be created, and can be called from any thread.
+   *
+   * @param text      The text whose characters to get the positions of, must be non-null.
+   * @param font      The font for which to get the positions of the characters in the text, must be non-null.
+   * @param size      The font size for which to get the positions of the characters in the text.
+   * @param positions The array to write the {@code text.length() + 1} positions to, starting at index 0, must be non-null and of length at least {@code text.length() + 1}.
+   * @return The total width of the text, in pixels.
+   * @throws IllegalArgumentException If the array is too small.
+   */
+  public static float getTextPositions(CharSequence text, Font font, float size, float[] positions) {
+    Objects.requireNonNull(text);
+    Objects.requireNonNull(font);
+    Objects.requireNonNull(positions);
+    checkPositions(text, positions, null);
+    return layout(text, FontFace.get(font), size, positions, null);
+  }
+  
+  /**
+   * Writes the positions of all characters in the text, would they be drawn with the specified font and font size, followed by the total width of the text, to the specified buffer, and returns the total width of the text, as done by {@link Drawer#getTextPositions(CharSequence, Font, float, FloatBuffer)}.
+   * <p>
+   * The positions are written with absolute puts starting at the current position of the buffer, which is left unchanged. This method doesn't need the UI system to be created, and can be called from any thread.
+   *
+   * @param text      The text whose characters to get the positions of, must be non-null.
+   * @param font      The font for which to get the positions of the characters in the text, must be non-null.
+   * @param size      The font size for which to get the positions of the characters in the text.
+   * @param positions The buffer to write the {@code text.length() + 1} positions to, must be non-null and have at least {@code text.length() + 1} floats remaining.
+   * @return The total width of the text, in pixels.
+   * @throws IllegalArgumentException If the buffer is too small.
+   */
+  public static float getTextPositions(CharSequence text, Font font, float size, FloatBuffer positions) {
+    Objects.requireNonNull(text);
+    Objects.requireNonNull(font);
+    Objects.requireNonNull(positions);
+    checkPositions(text, null, positions);
+    return layout(text, FontFace.get(font), size, null, positions);
+  }
+  
+  static void checkPositions(CharSequence text, float[] positions, FloatBuffer positionsBuffer) {
+    int length = positions != null ? positions.length : positionsBuffer != null ? positionsBuffer.remaining() : Integer.MAX_VALUE;
+    if (length < text.length() + 1) {
+      throw new IllegalArgumentException("The positions output must have room for " + (text.length() + 1) + " positions, but has room for " + length + "!");
+    }
+  }
+  
+  /**
+   * Lays a text out on a single line without allocating, writing the positions of its characters to the specified outputs, if not null.
+   * <p>
+   * This is the reference layout: the renderer places glyphs with the same advances and kerning, in the same order, so that positions match exactly.
+   *
+   * @return The width of the text.
+   */
+  static float layout(CharSequence text, FontFace face, float size, float[] positions, FloatBuffer positionsBuffer) {
+    float scale = face.getScale(size);
+    int position = positionsBuffer == null ? 0 : positionsBuffer.position();
+    float x = 0;
+    int previous = -1;
+    for (int i = 0; i < text.length(); ) {
+      int c = Character.codePointAt(text, i);
+      int count = Character.charCount(c);
+      if (c >= 32 && previous != -1) {
+        x += face.getKerning(previous, c) * scale;
+      }
+      // the second char of a surrogate pair is at the position of its codepoint
+      for (int j = i; j < i + count; j++) {
+        if (positions != null) {
+          positions[j] = x;
+        } else if (positionsBuffer != null) {
+          positionsBuffer.put(position + j, x);
+        }
+      }
+      i += count;
+      // control characters aren't drawn, and break kerning
+      if (c < 32) {
+        previous = -1;
+        continue;
+      }
+      x += face.getAdvance(c) * scale;
+      previous = c;
+    }
+    if (positions != null) {
+      positions[text.length()] = x;
+    } else if (positionsBuffer != null) {
+      positionsBuffer.put(position + text.length(), x);
+    }
+    return x;
+  }
 }
@@ -0,0 +1,160 @@
+package fr.delthas.javaui;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.lwjgl.opengl.GL11.GL_TEXTURE_2D;
+import static org.lwjgl.opengl.GL11.glBindTexture;
+import static org.lwjgl.opengl.GL13.GL_TEXTURE0;
+import static org.lwjgl.opengl.GL13.glActiveTexture;
+import static org.lwjgl.opengl.GL15.GL_ARRAY_BUFFER;
+import static org.lwjgl.opengl.GL15.glBindBuffer;
+import static org.lwjgl.opengl.GL20.*;
+import static org.lwjgl.opengl.GL30.glBindVertexArray;
+
+/**
+ * Shadow copy of the GL state that Window changes while drawing, so that calls that wouldn't change anything are skipped.
+ * <p>
+ * All binds and uniform uploads of Window must go through this class, otherwise the shadow copy would go stale. Counts the calls that were issued and the calls that were elided.
+ */
+final class GlState {
+  private static final int TEXTURE_UNITS = 4;
+  private static final int UNKNOWN = -1;
+  
+  private int program;
+  private int vertexArray;
+  private int arrayBuffer;
+  private int activeTexture;
+  private final int[] textures = new int[TEXTURE_UNITS];
+  // last value of each uniform, keyed by program and location
+  private final Map<Long, float[]> uniforms = new HashMap<>();
+  private int issued;
+  private int elided;
+  
+  GlState() {
+    reset();
+  }
+  
+  /**
+   * Forgets all the state, e.g. after a context was created, so that the next calls are all issued.
+   */
+  void reset() {
+    program = UNKNOWN;
+    vertexArray = UNKNOWN;
+    arrayBuffer = UNKNOWN;
+    activeTexture = UNKNOWN;
+    Arrays.fill(textures, UNKNOWN);
+    uniforms.clear();
+  }
+  
+  void useProgram(int program) {
+    if (this.program == program) {
+      elided++;
+      return;
+    }
+    issued++;
+    this.program = program;
+    glUseProgram(program);
+  }
+  
+  void bindVertexArray(int vertexArray) {
+    if (this.vertexArray == vertexArray) {
+      elided++;
+      return;
+    }
+    issued++;
+    this.vertexArray = vertexArray;
+    glBindVertexArray(vertexArray);
+  }
+  
+  void bindArrayBuffer(int buffer) {
+    if (arrayBuffer == buffer) {
+      elided++;
+      return;
+    }
+    issued++;
+    arrayBuffer = buffer;
+    glBindBuffer(GL_ARRAY_BUFFER, buffer);
+  }
+  
+  void bindTexture(int unit, int texture) {
+    bindTexture(unit, GL_TEXTURE_2D, texture);
+  }
+  
+  /**
+   * Binds a texture of any target; since texture names are unique across targets, a single texture is tracked per unit.
+   * <p>
+   * The unit is made active even if the bind is elided, since texture uploads and parameters apply to the texture of the active unit.
+   */
+  void bindTexture(int unit, int target, int texture) {
+    if (activeTexture != unit) {
+      issued++;
+      activeTexture = unit;
+      glActiveTexture(GL_TEXTURE0 + unit);
+    }
+    if (textures[unit] == texture) {
+      elided++;
+      return;
+    }
+    issued++;
+    textures[unit] = texture;
+    glBindTexture(target, texture);
+  }
+  
+  /**
+   * Must be called when a texture is deleted, because GL then unbinds it from all units.
+   */
+  void deleteTexture(int texture) {
+    for (int i = 0; i < textures.length; i++) {
+      if (textures[i] == texture) {
+        textures[i] = 0;
+      }
+    }
+  }
+  
+  /**
+   * Sets a uniform of the current program.
+   */
+  void uniform1i(int location, int x) {
+    if (isUniformSet(location, x, 0)) {
+      return;
+    }
+    glUniform1i(location, x);
+  }
+  
+  /**
+   * Sets a uniform of the current program.
+   */
+  void uniform2f(int location, float x, float y) {
+    if (isUniformSet(location, x, y)) {
+      return;
+    }
+    glUniform2f(location, x, y);
+  }
+  
+  private boolean isUniformSet(int location, float x, float y) {
+    float[] values = uniforms.computeIfAbsent((long) program << 32 | location & 0xFFFFFFFFL, k -> new float[]{Float.NaN, Float.NaN});
+    if (values[0] == x && values[1] == y) {
+      elided++;
+      return true;
+    }
+    issued++;
+    values[0] = x;
+    values[1] = y;
+    return false;
+  }
+  
+  int getIssued() {
+    return issued;
+  }
+  
+  int getElided() {
+    return elided;
+  }
+  
+  void resetCounts() {
+    issued = 0;
+    elided = 0;
+  }
+}
@@ -0,0 +1,657 @@
+package fr.delthas.javaui;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+import static org.lwjgl.opengl.GL11.*;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_BASE_LEVEL;
+import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL30.GL_R8;
+import static org.lwjgl.stb.STBTruetype.*;
+import static org.lwjgl.system.MemoryUtil.*;
+
+/**
+ * Glyph cache shared by all fonts and font sizes: glyphs are rasterized with stb_truetype the first time they are drawn, and packed in a few single-channel textures, called pages.
+ * <p>
+ * Glyphs are either coverage bitmaps, rasterized for one font size, or signed distance fields, rasterized once at {@link #DISTANCE_FIELD_SIZE} and drawn at any size by a shader that thresholds the distance.
+ * <p>
+ * The metrics of the glyphs met are kept, so that text can be laid out without rasterizing it; once there are many, those of the glyphs that aren't resident and weren't used for a while are dropped, and computed again if they are met again. The bitmaps are kept under a memory budget: when the pages are full and a new page would exceed the budget, the least recently drawn glyphs are evicted to make room, except those drawn in the current frame. Evicted glyphs are rasterized again when they are drawn again, so laid out text stays valid across evictions.
+ * <p>
+ * Bitmaps are rasterized on worker threads, so that drawing text with new characters or a new font size never stalls a frame: until its bitmap is uploaded, a glyph is drawn scaled from the resident glyph of the same character with the nearest font size, if any, or isn't drawn. Rasterized bitmaps are uploaded at the start of the next frame by {@link #poll()}.
+ */
+final class GlyphAtlas {
+  static final int PAGE_SIZE = 1024;
+  static final long DEFAULT_CAPACITY = 4L * PAGE_SIZE * PAGE_SIZE;
+  private static final long PAGE_BYTES = (long) PAGE_SIZE * PAGE_SIZE;
+  // horizontal oversampling improves the quality of small text drawn at fractional positions
+  private static final int OVERSAMPLE_X = 3, OVERSAMPLE_Y = 1;
+  // empty pixels around each glyph, so that linear filtering doesn't sample the neighboring glyphs
+  static final int PADDING = 1;
+  // font size at which distance field glyphs are rasterized, the glyphs of all sizes are scaled from it
+  static final float DISTANCE_FIELD_SIZE = 48;
+  // distance, in pixels at the distance field size, over which the field fades out around the glyph outline
+  private static final int DISTANCE_FIELD_SPREAD = 6;
+  // value of the field on the outline, and value change per pixel
+  private static final int DISTANCE_FIELD_EDGE = 128;
+  private static final float DISTANCE_FIELD_SCALE = (float) DISTANCE_FIELD_EDGE / DISTANCE_FIELD_SPREAD;
+  // the settings that change the rasterized glyphs, glyphs cached on disk with other settings aren't used
+  private static final String SETTINGS = "oversample:" + OVERSAMPLE_X + "x" + OVERSAMPLE_Y + ":padding:" + PADDING;
+  private static final String DISTANCE_FIELD_SETTINGS = "distance:" + DISTANCE_FIELD_SPREAD + ":" + DISTANCE_FIELD_EDGE + ":padding:" + PADDING;
+  // glyphs kept at least, whether used or not, and frames after which a glyph that isn't resident is considered unused
+  private static final int PRUNE_GLYPHS = 8192;
+  private static final int PRUNE_AGE = 600;
+  
+  private final GlState gl;
+  private final List<Page> pages = new ArrayList<>();
+  private long capacity;
+  // open addressing hash map of all glyphs met, keyed by (size, font, distance field, codepoint), so that a lookup doesn't allocate
+  private final GlyphTable glyphs = new GlyphTable();
+  // the resident glyphs of each (font, codepoint) at all sizes, linked by Glyph.sibling, to find a fallback for glyphs not rasterized yet
+  private final GlyphTable families = new GlyphTable();
+  // number of glyphs in the table past which the glyphs that aren't used are dropped
+  private int pruneThreshold = PRUNE_GLYPHS;
+  // glyphs whose bitmap was rasterized by a worker and must be uploaded
+  private final Queue<Glyph> rasterized = new ConcurrentLinkedQueue<>();
+  private final GlyphCache cache = new GlyphCache(runnable -> RasterizerPool.EXECUTOR.execute(runnable));
+  private volatile boolean destroyed;
+  // resident glyphs, most recently drawn first
+  private Glyph head, tail;
+  private int frame;
+  private final int[] boxX0 = new int[1], boxY0 = new int[1], boxX1 = new int[1], boxY1 = new int[1];
+  private final int[] hmetrics = new int[1];
+  
+  GlyphAtlas(GlState gl, long capacity) {
+    this.gl = gl;
+    this.capacity = capacity;
+  }
+  
+  void setCapacity(long capacity) {
+    this.capacity = capacity;
+  }
+  
+  /**
+   * Starts a new frame: the glyphs drawn in previous frames can be evicted again.
+   */
+  void nextFrame() {
+    frame++;
+    if (glyphs.size() > pruneThreshold) {
+      prune();
+    }
+  }
+  
+  // drops the metrics of the glyphs that aren't resident and weren't used recently, laid out text keeps its glyphs and can still draw them
+  private void prune() {
+    int frame = this.frame;
+    glyphs.removeIf(glyph -> glyph.page == null && !glyph.pending && frame - glyph.lastUse > PRUNE_AGE);
+    // pruning again is only worth it once the table doubled, so that it is amortized over the glyphs met
+    pruneThreshold = Math.max(PRUNE_GLYPHS, 2 * glyphs.size());
+  }
+  
+  /**
+   * Returns the glyph of a codepoint in a font at a font size, computing its metrics if it wasn't met before; its bitmap is only rasterized when it is drawn.
+   */
+  Glyph getGlyph(FontFace face, float size, int codepoint) {
+    return getGlyph(face, size, codepoint, false);
+  }
+  
+  /**
+   * Returns the distance field glyph of a codepoint in a font, for all font sizes; its metrics are for {@link #DISTANCE_FIELD_SIZE}.
+   */
+  Glyph getDistanceFieldGlyph(FontFace face, int codepoint) {
+    return getGlyph(face, DISTANCE_FIELD_SIZE, codepoint, true);
+  }
+  
+  private Glyph getGlyph(FontFace face, float size, int codepoint, boolean distanceField) {
+    long key = (long) Float.floatToIntBits(size) << 32 | (long) face.font.ordinal() << 22 | (distanceField ? 1L << 21 : 0) | codepoint;
+    Glyph glyph = glyphs.get(key);
+    if (glyph != null) {
+      if (glyph.page == null) {
+        glyph.lastUse = frame;
+      }
+      return glyph;
+    }
+    GlyphCache.Entry entry = cache.getEntry(face, size, distanceField, distanceField ? DISTANCE_FIELD_SETTINGS : SETTINGS);
+    glyph = entry == null ? null : entry.getGlyph(face, size, codepoint, distanceField);
+    if (glyph == null) {
+      glyph = distanceField ? createDistanceFieldGlyph(face, codepoint) : createGlyph(face, size, codepoint);
+      glyph.cacheEntry = entry;
+      if (entry != null && glyph.width == 0) {
+        // glyphs with a bitmap are added once rasterized
+        entry.add(glyph, null);
+      }
+    }
+    glyph.lastUse = frame;
+    glyphs.put(key, glyph);
+    return glyph;
+  }
+  
+  private Glyph createGlyph(FontFace face, float size, int codepoint) {
+    // codepoints missing from the font are drawn with the missing glyph of the font, index 0
+    int index = stbtt_FindGlyphIndex(face.info, codepoint);
+    float scale = face.getScale(size);
+    stbtt_GetGlyphHMetrics(face.info, index, hmetrics, null);
+    float advance = hmetrics[0] * scale;
+    stbtt_GetGlyphBitmapBoxSubpixel(face.info, index, scale * OVERSAMPLE_X, scale * OVERSAMPLE_Y, 0, 0, boxX0, boxY0, boxX1, boxY1);
+    int x0 = boxX0[0];
+    int y0 = boxY0[0];
+    int x1 = boxX1[0];
+    int y1 = boxY1[0];
+    if (x1 <= x0 || y1 <= y0) {
+      return new Glyph(face, size, codepoint, index, false, advance, 0, 0, 0, 0, 0, 0);
+    }
+    // the prefilter widens the bitmap by the oversampling minus one
+    int width = x1 - x0 + OVERSAMPLE_X - 1;
+    int height = y1 - y0 + OVERSAMPLE_Y - 1;
+    if (width + 2 * PADDING > PAGE_SIZE || height + 2 * PADDING > PAGE_SIZE) {
+      // too large to be cached, not drawn
+      return new Glyph(face, size, codepoint, index, false, advance, 0, 0, 0, 0, 0, 0);
+    }
+    // same placement as stbtt_PackFontRanges, stb lays glyphs out with y down
+    float shiftX = oversampleShift(OVERSAMPLE_X);
+    float shiftY = oversampleShift(OVERSAMPLE_Y);
+    float left = (float) x0 / OVERSAMPLE_X + shiftX;
+    float top = (float) y0 / OVERSAMPLE_Y + shiftY;
+    float right = (float) (x0 + width) / OVERSAMPLE_X + shiftX;
+    float bottom = (float) (y0 + height) / OVERSAMPLE_Y + shiftY;
+    return new Glyph(face, size, codepoint, index, false, advance, left, -top, right, -bottom, width, height);
+  }
+  
+  private Glyph createDistanceFieldGlyph(FontFace face, int codepoint) {
+    int index = stbtt_FindGlyphIndex(face.info, codepoint);
+    float scale = face.getScale(DISTANCE_FIELD_SIZE);
+    stbtt_GetGlyphHMetrics(face.info, index, hmetrics, null);
+    float advance = hmetrics[0] * scale;
+    // same box as stbtt_GetGlyphSDF, which extends the bitmap box by the spread
+    stbtt_GetGlyphBitmapBoxSubpixel(face.info, index, scale, scale, 0, 0, boxX0, boxY0, boxX1, boxY1);
+    if (boxX1[0] <= boxX0[0] || boxY1[0] <= boxY0[0]) {
+      return new Glyph(face, DISTANCE_FIELD_SIZE, codepoint, index, true, advance, 0, 0, 0, 0, 0, 0);
+    }
+    int x0 = boxX0[0] - DISTANCE_FIELD_SPREAD;
+    int y0 = boxY0[0] - DISTANCE_FIELD_SPREAD;
+    int x1 = boxX1[0] + DISTANCE_FIELD_SPREAD;
+    int y1 = boxY1[0] + DISTANCE_FIELD_SPREAD;
+    return new Glyph(face, DISTANCE_FIELD_SIZE, codepoint, index, true, advance, x0, -y0, x1, -y1, x1 - x0, y1 - y0);
+  }
+  
+  private static float oversampleShift(int oversample) {
+    return oversample == 1 ? 0 : -(oversample - 1) / (2f * oversample);
+  }
+  
+  /**
+   * Returns the glyph to draw for a glyph, and marks it as drawn in this frame: the glyph itself if it is resident, otherwise the resident glyph of the same character with the nearest font size, or null if there is none or if the glyph has no bitmap.
+   * <p>
+   * A glyph that isn't resident is rasterized in the background, and uploaded by a later call to {@link #poll()}.
+   */
+  Glyph resolve(Glyph glyph) {
+    if (glyph.width == 0) {
+      return null;
+    }
+    if (glyph.page != null) {
+      touch(glyph);
+      return glyph;
+    }
+    request(glyph);
+    glyph.missed = true;
+    glyph.lastUse = frame;
+    Glyph fallback = null;
+    double fallbackDistance = Double.POSITIVE_INFINITY;
+    if (!glyph.distanceField) {
+      for (Glyph other = families.get(getFamilyKey(glyph)); other != null; other = other.sibling) {
+        double distance = Math.abs(Math.log(other.size / glyph.size));
+        if (distance < fallbackDistance) {
+          fallback = other;
+          fallbackDistance = distance;
+        }
+      }
+    }
+    if (fallback != null) {
+      touch(fallback);
+    }
+    return fallback;
+  }
+  
+  /**
+   * Starts rasterizing a glyph in the background if it isn't resident, so that it is resident when it is first drawn.
+   */
+  void prewarm(Glyph glyph) {
+    if (glyph.width != 0 && glyph.page == null) {
+      request(glyph);
+    }
+  }
+  
+  private void request(Glyph glyph) {
+    if (glyph.pending) {
+      return;
+    }
+    glyph.pending = true;
+    RasterizerPool.EXECUTOR.execute(() -> {
+      ByteBuffer bitmap = rasterize(glyph);
+      if (destroyed) {
+        memFree(bitmap);
+        return;
+      }
+      glyph.bitmap = bitmap;
+      rasterized.add(glyph);
+      // destroy() may have drained the queue between the check and the add
+      if (destroyed) {
+        freeRasterized();
+      }
+    });
+  }
+  
+  private void freeRasterized() {
+    Glyph glyph;
+    while ((glyph = rasterized.poll()) != null) {
+      memFree(glyph.bitmap);
+      glyph.bitmap = null;
+      glyph.pending = false;
+    }
+  }
+  
+  /**
+   * Uploads the glyphs rasterized since the last call.
+   *
+   * @return Whether a glyph that couldn't be drawn (or was drawn with a fallback) was uploaded, in which case the text drawn with it must be drawn again.
+   */
+  boolean poll() {
+    boolean missed = false;
+    Glyph glyph;
+    while ((glyph = rasterized.poll()) != null) {
+      ByteBuffer bitmap = glyph.bitmap;
+      glyph.bitmap = null;
+      glyph.pending = false;
+      if (glyph.page == null) {
+        place(glyph);
+        if (!glyph.distanceField) {
+          long familyKey = getFamilyKey(glyph);
+          glyph.sibling = families.get(familyKey);
+          families.put(familyKey, glyph);
+        }
+        upload(glyph, bitmap);
+        touch(glyph);
+        if (!glyph.missed) {
+          // prewarmed but not drawn yet, can be evicted by the next glyphs of this frame
+          glyph.lastUse = frame - 1;
+        }
+      }
+      memFree(bitmap);
+      missed |= glyph.missed;
+      glyph.missed = false;
+    }
+    return missed;
+  }
+  
+  // marks a resident glyph as drawn in this frame, moving it to the front of the recently used list
+  private void touch(Glyph glyph) {
+    if (glyph.lastUse == frame && head == glyph) {
+      return;
+    }
+    if (glyph.previous != null || head == glyph) {
+      unlink(glyph);
+    }
+    glyph.lastUse = frame;
+    glyph.next = head;
+    if (head != null) {
+      head.previous = glyph;
+    }
+    head = glyph;
+    if (tail == null) {
+      tail = glyph;
+    }
+  }
+  
+  private void place(Glyph glyph) {
+    for (Page page : pages) {
+      if (place(page, glyph)) {
+        return;
+      }
+    }
+    // evict the least recently drawn glyphs rather than adding a page past the budget
+    while ((pages.size() + 1) * PAGE_BYTES > capacity && tail != null && tail.lastUse != frame) {
+      Glyph evicted = tail;
+      Page page = evicted.page;
+      unlink(evicted);
+      evict(evicted);
+      if (page.count == 0 && pages.size() * PAGE_BYTES > capacity) {
+        pages.remove(page);
+        glDeleteTextures(page.texture);
+        gl.deleteTexture(page.texture);
+        continue;
+      }
+      if (place(page, glyph)) {
+        return;
+      }
+    }
+    // the budget allows another page, or all resident glyphs were drawn in this frame and it is exceeded
+    Page page = new Page();
+    page.texture = glGenTextures();
+    gl.bindTexture(0, page.texture);
+    glTexImage2D(GL_TEXTURE_2D, 0, GL_R8, PAGE_SIZE, PAGE_SIZE, 0, GL_RED, GL_UNSIGNED_BYTE, NULL);
+    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
+    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
+    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
+    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
+    pages.add(page);
+    place(page, glyph);
+  }
+  
+  private static boolean place(Page page, Glyph glyph) {
+    long position = page.packer.insert(glyph.width + 2 * PADDING, glyph.height + 2 * PADDING);
+    if (position == -1) {
+      return false;
+    }
+    glyph.page = page;
+    glyph.x = (int) (position >>> 32);
+    glyph.y = (int) position;
+    glyph.s0 = (float) (glyph.x + PADDING) / PAGE_SIZE;
+    glyph.t0 = (float) (glyph.y + PADDING) / PAGE_SIZE;
+    glyph.s1 = (float) (glyph.x + PADDING + glyph.width) / PAGE_SIZE;
+    glyph.t1 = (float) (glyph.y + PADDING + glyph.height) / PAGE_SIZE;
+    page.count++;
+    return true;
+  }
+  
+  private void evict(Glyph glyph) {
+    Page page = glyph.page;
+    page.packer.remove(glyph.x, glyph.y, glyph.width + 2 * PADDING, glyph.height + 2 * PADDING);
+    page.count--;
+    glyph.page = null;
+    if (!glyph.distanceField) {
+      long familyKey = getFamilyKey(glyph);
+      Glyph first = families.get(familyKey);
+      if (first == glyph) {
+        if (glyph.sibling != null) {
+          families.put(familyKey, glyph.sibling);
+        } else {
+          families.remove(familyKey);
+        }
+      } else {
+        Glyph other = first;
+        while (other.sibling != glyph) {
+          other = other.sibling;
+        }
+        other.sibling = glyph.sibling;
+      }
+      glyph.sibling = null;
+    }
+  }
+  
+  private static long getFamilyKey(Glyph glyph) {
+    return (long) glyph.face.font.ordinal() << 22 | glyph.codepoint;
+  }
+  
+  private void unlink(Glyph glyph) {
+    if (glyph.previous != null) {
+      glyph.previous.next = glyph.next;
+    } else {
+      head = glyph.next;
+    }
+    if (glyph.next != null) {
+      glyph.next.previous = glyph.previous;
+    } else {
+      tail = glyph.previous;
+    }
+    glyph.previous = null;
+    glyph.next = null;
+  }
+  
+  // called by the workers, the font info is only read so it can be shared
+  private static ByteBuffer rasterize(Glyph glyph) {
+    int stride = glyph.width + 2 * PADDING;
+    int rows = glyph.height + 2 * PADDING;
+    ByteBuffer bitmap = memAlloc(stride * rows);
+    // the padding is uploaded with the glyph, clearing what an evicted glyph left there
+    memSet(memAddress(bitmap), 0, bitmap.capacity());
+    // the glyph may have been met before its cache entry was loaded, or written to the cache since
+    if (glyph.cacheEntry != null && glyph.cacheEntry.copyBitmap(glyph, bitmap)) {
+      return bitmap;
+    }
+    FontFace face = glyph.face;
+    float scale = face.getScale(glyph.size);
+    if (glyph.distanceField) {
+      int[] width = new int[1], height = new int[1], x = new int[1], y = new int[1];
+      ByteBuffer field = stbtt_GetGlyphSDF(face.info, scale, glyph.index, DISTANCE_FIELD_SPREAD, (byte) DISTANCE_FIELD_EDGE, DISTANCE_FIELD_SCALE, width, height, x, y);
+      if (field != null) {
+        int copyWidth = Math.min(width[0], glyph.width);
+        int copyHeight = Math.min(height[0], glyph.height);
+        for (int row = 0; row < copyHeight; row++) {
+          memCopy(memAddress(field) + row * width[0], memAddress(bitmap) + (row + PADDING) * stride + PADDING, copyWidth);
+        }
+        stbtt_FreeSDF(field);
+      }
+    } else {
+      bitmap.position(PADDING * stride + PADDING);
+      stbtt_MakeGlyphBitmapSubpixelPrefilter(face.info, bitmap, glyph.width, glyph.height, stride, scale * OVERSAMPLE_X, scale * OVERSAMPLE_Y, 0, 0, OVERSAMPLE_X, OVERSAMPLE_Y, new float[1], new float[1], glyph.index);
+      bitmap.position(0);
+    }
+    if (glyph.cacheEntry != null) {
+      glyph.cacheEntry.add(glyph, bitmap);
+    }
+    return bitmap;
+  }
+  
+  private void upload(Glyph glyph, ByteBuffer bitmap) {
+    gl.bindTexture(0, glyph.page.texture);
+    glPixelStorei(GL_UNPACK_ALIGNMENT, 1);
+    glTexSubImage2D(GL_TEXTURE_2D, 0, glyph.x, glyph.y, glyph.width + 2 * PADDING, glyph.height + 2 * PADDING, GL_RED, GL_UNSIGNED_BYTE, bitmap);
+    glPixelStorei(GL_UNPACK_ALIGNMENT, 4);
+  }
+  
+  /**
+   * @return The number of pages currently allocated.
+   */
+  int getPageCount() {
+    return pages.size();
+  }
+  
+  void destroy() {
+    for (Page page : pages) {
+      glDeleteTextures(page.texture);
+      gl.deleteTexture(page.texture);
+    }
+    pages.clear();
+    // glyphs kept by laid out text must not reference the deleted pages, they are rasterized again if drawn after the UI is created again
+    for (Glyph glyph = head; glyph != null; ) {
+      Glyph next = glyph.next;
+      glyph.page = null;
+      glyph.previous = null;
+      glyph.next = null;
+      glyph.sibling = null;
+      glyph = next;
+    }
+    head = null;
+    tail = null;
+    families.clear();
+    destroyed = true;
+    cache.flush();
+    freeRasterized();
+  }
+  
+  // open addressing hash map of glyphs keyed by a long, so that a lookup doesn't allocate
+  private static final class GlyphTable {
+    private long[] keys = new long[1024];
+    private Glyph[] values = new Glyph[1024];
+    private int count;
+    
+    Glyph get(long key) {
+      int mask = keys.length - 1;
+      for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+        if (keys[i] == key) {
+          return values[i];
+        }
+      }
+      return null;
+    }
+    
+    void put(long key, Glyph value) {
+      int mask = keys.length - 1;
+      int i = hash(key) & mask;
+      while (values[i] != null && keys[i] != key) {
+        i = (i + 1) & mask;
+      }
+      if (values[i] == null) {
+        count++;
+      }
+      keys[i] = key;
+      values[i] = value;
+      if (count * 2 > keys.length) {
+        grow();
+      }
+    }
+    
+    void remove(long key) {
+      int mask = keys.length - 1;
+      int i = hash(key) & mask;
+      while (values[i] != null && keys[i] != key) {
+        i = (i + 1) & mask;
+      }
+      if (values[i] == null) {
+        return;
+      }
+      count--;
+      // move back the next entries of the run that can't be found past the hole anymore
+      for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+        int home = hash(keys[j]) & mask;
+        if (((j - home) & mask) >= ((j - i) & mask)) {
+          keys[i] = keys[j];
+          values[i] = values[j];
+          i = j;
+        }
+      }
+      values[i] = null;
+    }
+    
+    /**
+     * Removes the glyphs matching a condition, shrinking the table to fit the remaining ones.
+     */
+    void removeIf(Predicate<Glyph> condition) {
+      long[] oldKeys = keys;
+      Glyph[] oldValues = values;
+      int remaining = 0;
+      for (int j = 0; j < oldValues.length; j++) {
+        if (oldValues[j] != null && condition.test(oldValues[j])) {
+          oldValues[j] = null;
+        } else if (oldValues[j] != null) {
+          remaining++;
+        }
+      }
+      int length = 1024;
+      while (remaining * 4 > length) {
+        length *= 2;
+      }
+      rehash(oldKeys, oldValues, length);
+      count = remaining;
+    }
+    
+    int size() {
+      return count;
+    }
+    
+    void clear() {
+      Arrays.fill(values, null);
+      count = 0;
+    }
+    
+    private void grow() {
+      rehash(keys, values, keys.length * 2);
+    }
+    
+    private void rehash(long[] oldKeys, Glyph[] oldValues, int length) {
+      keys = new long[length];
+      values = new Glyph[length];
+      int mask = keys.length - 1;
+      for (int j = 0; j < oldKeys.length; j++) {
+        if (oldValues[j] == null) {
+          continue;
+        }
+        int i = hash(oldKeys[j]) & mask;
+        while (values[i] != null) {
+          i = (i + 1) & mask;
+        }
+        keys[i] = oldKeys[j];
+        values[i] = oldValues[j];
+      }
+    }
+    
+    private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ h >>> 32);
+    }
+  }
+  
+  // created on first use
+  private static final class RasterizerPool {
+    static final ExecutorService EXECUTOR;
+    
+    static {
+      AtomicInteger count = new AtomicInteger();
+      EXECUTOR = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), runnable -> {
+        Thread thread = new Thread(runnable, "javaui-glyph-rasterizer-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+  
+  static final class Page {
+    final RectanglePacker packer = new RectanglePacker(PAGE_SIZE);
+    int texture;
+    // number of glyphs in the page
+    int count;
+  }
+  
+  /**
+   * A glyph of a font at a font size: its metrics, and where its bitmap is while it is resident.
+   */
+  static final class Glyph {
+    final FontFace face;
+    final float size;
+    final int codepoint;
+    final int index;
+    final float advance;
+    final boolean distanceField;
+    // quad of the bitmap relative to the pen position, in pixels, y up
+    final float x0, y0, x1, y1;
+    // size of the bitmap in (oversampled) pixels, 0 if the glyph has no bitmap
+    final int width, height;
+    // null while the glyph isn't resident
+    Page page;
+    // position of the padded bitmap in the page
+    int x, y;
+    float s0, t0, s1, t1;
+    int lastUse;
+    Glyph previous, next;
+    // the next resident glyph of the same character at another font size
+    Glyph sibling;
+    // whether the bitmap is being rasterized, and whether the glyph was drawn since, only used by the render thread
+    boolean pending;
+    boolean missed;
+    // set by the worker that rasterized the glyph
+    ByteBuffer bitmap;
+    // the disk cache entry of the font and size, null if the cache is disabled
+    GlyphCache.Entry cacheEntry;
+    
+    Glyph(FontFace face, float size, int codepoint, int index, boolean distanceField, float advance, float x0, float y0, float x1, float y1, int width, int height) {
+      this.face = face;
+      this.size = size;
+      this.codepoint = codepoint;
+      this.index = index;
+      this.distanceField = distanceField;
+      this.advance = advance;
+      this.x0 = x0;
+      this.y0 = y0;
+      this.x1 = x1;
+      this.y1 = y1;
+      this.width = width;
+      this.height = height;
+    }
+  }
+}
@@ -0,0 +1,441 @@
+package fr.delthas.javaui;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+
+import static org.lwjgl.system.MemoryUtil.memAddress;
+import static org.lwjgl.system.MemoryUtil.memCopy;
+
+/**
+ * Optional on-disk cache of rasterized glyphs, so that the glyphs rasterized on a previous run are memory-mapped instead of being rasterized again.
+ * <p>
+ * Glyphs are grouped in one file per font file hash, font size and rasterization settings (oversampling, padding, distance field parameters). Each file is a header (magic, version, glyph count), an index of (codepoint, record offset) sorted by codepoint, then a record per glyph: its metrics followed by its padded bitmap. Files are mapped in the background on first use of their font and size, their glyphs are rasterized as if they weren't cached until then, and glyphs rasterized during the run are written back in batches, and by {@link #flush()}. A file that may be mapped is never replaced: each write creates a new file, named after the key and a generation number, and the older generations are deleted once they can be.
+ */
+final class GlyphCache {
+  private static final int MAGIC = 0x4A554746;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 3 * 4;
+  // per glyph: codepoint, record offset
+  private static final int INDEX_SIZE = 2 * 4;
+  // per glyph: glyph index, advance, x0, y0, x1, y1, width, height, then the bitmap
+  private static final int RECORD_SIZE = 8 * 4;
+  // size of the added glyphs past which they are written, so that their bitmaps aren't all kept until the cache is flushed
+  private static final int WRITE_BYTES = 256 * 1024;
+  
+  private static volatile Path directory;
+  
+  private final Map<Long, Entry> entries = new HashMap<>();
+  // runs the writes of the added glyphs
+  private final Executor executor;
+  
+  GlyphCache(Executor executor) {
+    this.executor = executor;
+  }
+  
+  static void setDirectory(Path directory) {
+    GlyphCache.directory = directory;
+  }
+  
+  /**
+   * Returns the cached glyphs of a font at a size, with the specified rasterization settings, or null if the cache is disabled. A new entry is loaded in the background, and has no glyphs until then.
+   */
+  Entry getEntry(FontFace face, float size, boolean distanceField, String settings) {
+    Path directory = GlyphCache.directory;
+    if (directory == null) {
+      return null;
+    }
+    long id = (long) Float.floatToIntBits(size) << 32 | (long) face.font.ordinal() << 1 | (distanceField ? 1 : 0);
+    Entry entry = entries.get(id);
+    if (entry == null) {
+      entry = new Entry(directory, face, size, settings, executor);
+      entries.put(id, entry);
+      // hashing the font and mapping the file are too slow for the render thread
+      executor.execute(entry::load);
+    }
+    return entry;
+  }
+  
+  /**
+   * Writes the glyphs rasterized since the last write to the cache. Failures are reported on the standard error and otherwise ignored, since the cache is only an optimization.
+   */
+  void flush() {
+    for (Entry entry : entries.values()) {
+      entry.flush();
+    }
+    entries.clear();
+  }
+  
+  /**
+   * The cached glyphs of a font at a size: those mapped from the cache file, and those rasterized since.
+   */
+  static final class Entry {
+    private final Path directory;
+    private final FontFace face;
+    private final float size;
+    private final String settings;
+    private final Executor executor;
+    // hash of the font and settings, naming the files of the entry, set by the load
+    private String key;
+    private volatile boolean loaded;
+    private final Object loadLock = new Object();
+    // the mapped newest file, replaced after each write, null if there is none or if it is invalid
+    private volatile Mapping mapping;
+    // generation of the newest file, -1 if there is none, and its path, only used by the writes
+    private long generation = -1;
+    private Path file;
+    // glyphs to add to the file by codepoint, added by the rasterizing workers and guarded by the entry
+    private final TreeMap<Integer, Record> added = new TreeMap<>();
+    private int addedBytes;
+    private boolean writeScheduled;
+    // set when a write failed, no glyphs are added afterwards
+    private boolean failed;
+    private final Object writeLock = new Object();
+    
+    Entry(Path directory, FontFace face, float size, String settings, Executor executor) {
+      this.directory = directory;
+      this.face = face;
+      this.size = size;
+      this.settings = settings;
+      this.executor = executor;
+    }
+    
+    // maps the newest file if the entry wasn't loaded yet, called from the workers
+    private void load() {
+      if (loaded) {
+        return;
+      }
+      synchronized (loadLock) {
+        if (!loaded) {
+          MessageDigest digest = Utils.getDigest();
+          digest.update(("glyphs:" + face.getHash() + ":" + size + ":" + settings).getBytes(StandardCharsets.UTF_8));
+          key = Utils.toHex(digest.digest());
+          loadFiles();
+          loaded = true;
+        }
+      }
+    }
+    
+    private void loadFiles() {
+      // the files are named <key>.<generation>, only the newest generation is used
+      Path newest = null;
+      List<Path> older = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, key + ".*")) {
+        for (Path path : stream) {
+          long generation = getGeneration(path);
+          if (generation == -1) {
+            continue;
+          }
+          if (generation > this.generation) {
+            if (newest != null) {
+              older.add(newest);
+            }
+            newest = path;
+            this.generation = generation;
+          } else {
+            older.add(path);
+          }
+        }
+      } catch (IOException e) {
+        // a cache that can't be read is a cache miss
+        return;
+      }
+      for (Path path : older) {
+        delete(path);
+      }
+      if (newest != null) {
+        file = newest;
+        mapping = map(newest);
+      }
+    }
+    
+    private long getGeneration(Path path) {
+      String name = path.getFileName().toString();
+      try {
+        long generation = Long.parseLong(name.substring(key.length() + 1));
+        return generation >= 0 ? generation : -1;
+      } catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+    
+    private static Mapping map(Path path) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        long size = channel.size();
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+          return null;
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int count = buffer.getInt(8);
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || count < 0 || HEADER_SIZE + (long) count * INDEX_SIZE > size) {
+          return null;
+        }
+        for (int i = 0; i < count; i++) {
+          int offset = buffer.getInt(HEADER_SIZE + i * INDEX_SIZE + 4);
+          if (offset < 0 || offset + RECORD_SIZE > size || !isValidSize(buffer, offset) || offset + RECORD_SIZE + getBitmapSize(buffer, offset) > size) {
+            return null;
+          }
+        }
+        // the mapping is released when the buffer is garbage collected
+        return new Mapping(buffer, count);
+      } catch (IOException e) {
+        // a cache that can't be read is a cache miss
+        return null;
+      }
+    }
+    
+    // a glyph of a corrupt or foreign file must fit in an atlas page, like the glyphs rasterized by the atlas
+    private static boolean isValidSize(ByteBuffer buffer, int offset) {
+      int width = buffer.getInt(offset + 6 * 4);
+      int height = buffer.getInt(offset + 7 * 4);
+      return width >= 0 && height >= 0 && width + 2 * GlyphAtlas.PADDING <= GlyphAtlas.PAGE_SIZE && height + 2 * GlyphAtlas.PADDING <= GlyphAtlas.PAGE_SIZE;
+    }
+    
+    private static int getBitmapSize(ByteBuffer buffer, int offset) {
+      int width = buffer.getInt(offset + 6 * 4);
+      int height = buffer.getInt(offset + 7 * 4);
+      return width == 0 ? 0 : (width + 2 * GlyphAtlas.PADDING) * (height + 2 * GlyphAtlas.PADDING);
+    }
+    
+    /**
+     * Creates a glyph from its record in the mapped file, or returns null if it isn't cached.
+     */
+    GlyphAtlas.Glyph getGlyph(FontFace face, float size, int codepoint, boolean distanceField) {
+      Mapping mapping = this.mapping;
+      int offset = mapping == null ? -1 : mapping.find(codepoint);
+      if (offset == -1) {
+        return null;
+      }
+      ByteBuffer b = mapping.buffer;
+      GlyphAtlas.Glyph glyph = new GlyphAtlas.Glyph(face, size, codepoint, b.getInt(offset), distanceField, b.getFloat(offset + 4), b.getFloat(offset + 2 * 4), b.getFloat(offset + 3 * 4), b.getFloat(offset + 4 * 4), b.getFloat(offset + 5 * 4), b.getInt(offset + 6 * 4), b.getInt(offset + 7 * 4));
+      glyph.cacheEntry = this;
+      return glyph;
+    }
+    
+    /**
+     * Copies the cached bitmap of a glyph, loading the entry if needed, called from the workers.
+     *
+     * @return Whether the glyph was cached, with a bitmap of the size of the glyph.
+     */
+    boolean copyBitmap(GlyphAtlas.Glyph glyph, ByteBuffer bitmap) {
+      // the glyph may have been met before the entry was loaded
+      load();
+      Mapping mapping = this.mapping;
+      int offset = mapping == null ? -1 : mapping.find(glyph.codepoint);
+      if (offset == -1 || mapping.buffer.getInt(offset + 6 * 4) != glyph.width || mapping.buffer.getInt(offset + 7 * 4) != glyph.height) {
+        return false;
+      }
+      memCopy(memAddress(mapping.buffer) + offset + RECORD_SIZE, memAddress(bitmap), getBitmapSize(mapping.buffer, offset));
+      return true;
+    }
+    
+    /**
+     * Adds a glyph that wasn't cached, with its bitmap if it has one, can be called from any thread. A glyph is only added once, and the added glyphs are written in the background when they add up to a few hundred kilobytes.
+     */
+    void add(GlyphAtlas.Glyph glyph, ByteBuffer bitmap) {
+      synchronized (this) {
+        if (failed || added.containsKey(glyph.codepoint)) {
+          return;
+        }
+        Mapping mapping = this.mapping;
+        if (mapping != null && mapping.find(glyph.codepoint) != -1) {
+          return;
+        }
+        byte[] pixels = null;
+        if (bitmap != null) {
+          pixels = new byte[bitmap.remaining()];
+          bitmap.duplicate().get(pixels);
+        }
+        added.put(glyph.codepoint, new Record(glyph, pixels));
+        addedBytes += RECORD_SIZE + (pixels == null ? 0 : pixels.length);
+        if (addedBytes < WRITE_BYTES || writeScheduled) {
+          return;
+        }
+        writeScheduled = true;
+      }
+      executor.execute(this::flush);
+    }
+    
+    private void flush() {
+      synchronized (writeLock) {
+        List<Record> records;
+        synchronized (this) {
+          writeScheduled = false;
+          if (added.isEmpty()) {
+            return;
+          }
+          records = new ArrayList<>(added.values());
+        }
+        load();
+        Mapping mapping = this.mapping;
+        // glyphs met before the entry was loaded may be in the file already
+        List<Record> missing = new ArrayList<>(records.size());
+        for (Record record : records) {
+          if (mapping == null || mapping.find(record.glyph.codepoint) == -1) {
+            missing.add(record);
+          }
+        }
+        Mapping written = missing.isEmpty() ? mapping : write(merge(mapping, missing));
+        synchronized (this) {
+          if (written != null) {
+            this.mapping = written;
+          } else {
+            failed = true;
+          }
+          for (Record record : records) {
+            added.remove(record.glyph.codepoint);
+            addedBytes -= RECORD_SIZE + (record.pixels == null ? 0 : record.pixels.length);
+          }
+        }
+      }
+    }
+    
+    // returns the records of the mapped file and the added records, sorted by codepoint
+    private static ByteBuffer merge(Mapping mapping, List<Record> records) {
+      int count = mapping == null ? 0 : mapping.count;
+      ByteBuffer mapped = mapping == null ? null : mapping.buffer;
+      int total = count + records.size();
+      int size = HEADER_SIZE + total * INDEX_SIZE;
+      for (int i = 0; i < count; i++) {
+        size += RECORD_SIZE + getBitmapSize(mapped, mapped.getInt(HEADER_SIZE + i * INDEX_SIZE + 4));
+      }
+      for (Record record : records) {
+        size += RECORD_SIZE + (record.pixels == null ? 0 : record.pixels.length);
+      }
+      ByteBuffer out = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+      out.putInt(MAGIC).putInt(VERSION).putInt(total);
+      out.position(HEADER_SIZE + total * INDEX_SIZE);
+      int i = 0;
+      int j = 0;
+      for (int n = 0; n < total; n++) {
+        int mappedCodepoint = i < count ? mapped.getInt(HEADER_SIZE + i * INDEX_SIZE) : Integer.MAX_VALUE;
+        int addedCodepoint = j < records.size() ? records.get(j).glyph.codepoint : Integer.MAX_VALUE;
+        out.putInt(HEADER_SIZE + n * INDEX_SIZE, Math.min(mappedCodepoint, addedCodepoint));
+        out.putInt(HEADER_SIZE + n * INDEX_SIZE + 4, out.position());
+        if (mappedCodepoint < addedCodepoint) {
+          int from = mapped.getInt(HEADER_SIZE + i * INDEX_SIZE + 4);
+          ByteBuffer source = mapped.duplicate();
+          source.limit(from + RECORD_SIZE + getBitmapSize(mapped, from)).position(from);
+          out.put(source);
+          i++;
+        } else {
+          records.get(j).write(out);
+          j++;
+        }
+      }
+      out.flip();
+      return out;
+    }
+    
+    // writes the next generation of the file and maps it, returns null on failure
+    private Mapping write(ByteBuffer data) {
+      Path temp = null;
+      try {
+        Files.createDirectories(directory);
+        // written to a temporary file then renamed, so that concurrent readers never see a partial file
+        temp = Files.createTempFile(directory, key, ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+          while (data.hasRemaining()) {
+            channel.write(data);
+          }
+        }
+        Path path = directory.resolve(key + "." + (generation + 1));
+        try {
+          Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+          Files.move(temp, path);
+        }
+        temp = null;
+        generation++;
+        // the previous generation can't be deleted while it is mapped on some systems, it is then deleted by the next run
+        if (file != null) {
+          delete(file);
+        }
+        file = path;
+        Mapping mapping = map(path);
+        if (mapping == null) {
+          throw new IOException("The written file " + path + " can't be mapped");
+        }
+        return mapping;
+      } catch (IOException e) {
+        System.err.println("JavaUI Warning: Failed writing to the glyph cache in " + directory + ": " + e);
+        return null;
+      } finally {
+        if (temp != null) {
+          delete(temp);
+        }
+      }
+    }
+    
+    private static void delete(Path path) {
+      try {
+        Files.deleteIfExists(path);
+      } catch (IOException ignore) {
+      }
+    }
+  }
+  
+  // a mapped cache file, immutable so that it can be read from any thread
+  private static final class Mapping {
+    final ByteBuffer buffer;
+    final int count;
+    
+    Mapping(ByteBuffer buffer, int count) {
+      this.buffer = buffer;
+      this.count = count;
+    }
+    
+    // returns the offset of the record of a codepoint, or -1 if it isn't cached
+    int find(int codepoint) {
+      int low = 0;
+      int high = count - 1;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        int value = buffer.getInt(HEADER_SIZE + middle * INDEX_SIZE);
+        if (value < codepoint) {
+          low = middle + 1;
+        } else if (value > codepoint) {
+          high = middle - 1;
+        } else {
+          return buffer.getInt(HEADER_SIZE + middle * INDEX_SIZE + 4);
+        }
+      }
+      return -1;
+    }
+  }
+  
+  private static final class Record {
+    final GlyphAtlas.Glyph glyph;
+    // padded bitmap, null if the glyph has none
+    final byte[] pixels;
+    
+    Record(GlyphAtlas.Glyph glyph, byte[] pixels) {
+      this.glyph = glyph;
+      this.pixels = pixels;
+    }
+    
+    void write(ByteBuffer out) {
+      out.putInt(glyph.index).putFloat(glyph.advance).putFloat(glyph.x0).putFloat(glyph.y0).putFloat(glyph.x1).putFloat(glyph.y1).putInt(glyph.width).putInt(glyph.height);
+      if (pixels != null) {
+        out.put(pixels);
+      }
+    }
+  }
+}
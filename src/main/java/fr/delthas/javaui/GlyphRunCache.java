@@ -0,0 +1,138 @@
+package fr.delthas.javaui;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Least-recently-used cache of laid out text, keyed by (text, font, size).
+ * <p>
+ * The memory used by the runs (estimated) is kept under a configurable capacity; a capacity of 0 disables the cache.
+ */
+final class GlyphRunCache {
+  static final long DEFAULT_CAPACITY = 4 << 20;
+  // rough per-entry overhead of the key, the run, their arrays and the map entry
+  private static final int ENTRY_OVERHEAD = 160;
+  
+  private final Map<RunKey, GlyphRun> runs = new LinkedHashMap<>(64, 0.75f, true);
+  // reused for lookups so that a cache hit doesn't allocate
+  private final RunKey probe = new RunKey();
+  private long capacity = DEFAULT_CAPACITY;
+  private long used;
+  
+  GlyphRun get(String text, Font font, float size) {
+    probe.set(text, font, size);
+    GlyphRun run = runs.get(probe);
+    probe.text = null;
+    return run;
+  }
+  
+  void put(String text, Font font, float size, GlyphRun run) {
+    if (capacity == 0) {
+      return;
+    }
+    RunKey key = new RunKey();
+    key.set(text, font, size);
+    GlyphRun previous = runs.put(key, run);
+    if (previous != null) {
+      used -= getSize(key, previous);
+    }
+    used += getSize(key, run);
+    trim();
+  }
+  
+  void setCapacity(long capacity) {
+    this.capacity = capacity;
+    trim();
+  }
+  
+  void clear() {
+    runs.clear();
+    used = 0;
+  }
+  
+  private void trim() {
+    Iterator<Map.Entry<RunKey, GlyphRun>> it = runs.entrySet().iterator();
+    while (used > capacity && it.hasNext()) {
+      Map.Entry<RunKey, GlyphRun> entry = it.next();
+      used -= getSize(entry.getKey(), entry.getValue());
+      it.remove();
+    }
+  }
+  
+  private static long getSize(RunKey key, GlyphRun run) {
+    return ENTRY_OVERHEAD + 2L * key.text.length() + 8L * run.glyphs.length + 4L * (run.offsets.length + run.positions.length);
+  }
+  
+  /**
+   * Laid out text: the glyphs and their pen positions relative to the text origin, and the positions of all characters.
+   * <p>
+   * The glyphs are resolved to their place in the glyph atlas when the run is drawn, so a run stays valid when its glyphs are evicted.
+   */
+  static final class GlyphRun {
+    // the glyphs with a bitmap, and the horizontal pen position of each, in pixels relative to the origin
+    final GlyphAtlas.Glyph[] glyphs;
+    final float[] offsets;
+    final float[] positions;
+    // scale from the glyph metrics to the font size, for distance field glyphs
+    final float scale;
+    // bounds of the glyph quads relative to the origin
+    final float minX, minY, maxX, maxY;
+    
+    GlyphRun(GlyphAtlas.Glyph[] glyphs, float[] offsets, float[] positions, float scale) {
+      this.glyphs = glyphs;
+      this.offsets = offsets;
+      this.positions = positions;
+      this.scale = scale;
+      float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+      float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+      for (int i = 0; i < glyphs.length; i++) {
+        GlyphAtlas.Glyph glyph = glyphs[i];
+        minX = Math.min(minX, offsets[i] + glyph.x0 * scale);
+        minY = Math.min(minY, glyph.y1 * scale);
+        maxX = Math.max(maxX, offsets[i] + glyph.x1 * scale);
+        maxY = Math.max(maxY, glyph.y0 * scale);
+      }
+      this.minX = minX;
+      this.minY = minY;
+      this.maxX = maxX;
+      this.maxY = maxY;
+    }
+    
+    float getWidth() {
+      return positions[positions.length - 1];
+    }
+  }
+  
+  private static final class RunKey {
+    String text;
+    Font font;
+    float size;
+    int hash;
+    
+    void set(String text, Font font, float size) {
+      this.text = text;
+      this.font = font;
+      this.size = size;
+      hash = (text.hashCode() * 31 + font.hashCode()) * 31 + Float.hashCode(size);
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      RunKey runKey = (RunKey) o;
+      return hash == runKey.hash && Float.compare(runKey.size, size) == 0 && font == runKey.font && Objects.equals(text, runKey.text);
+    }
+    
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
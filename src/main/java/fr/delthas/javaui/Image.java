@@ -4,6 +4,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.lwjgl.stb.STBImage.stbi_image_free;
+import static org.lwjgl.stb.STBImage.stbi_load_from_memory;
 
 /**
  * Image represents a two-dimensional RGB/RGBA image, to be yet uploaded onto the GPU through {@link #upload()}, or {@link Atlas#uploadImage(Image)}.
@@ -105,9 +115,19 @@ public final class Image implements AutoCloseable {
    * @see #createImage(Path)
    */
   public static Image createImage(Path path, boolean ignoreAlpha) throws IOException {
+    String key = ImageCache.isEnabled() ? ImageCache.getKey(path, ignoreAlpha) : null;
+    if (key != null) {
+      Image image = ImageCache.load(key);
+      if (image != null) {
+        return image;
+      }
+    }
     ByteBuffer buffer = Utils.getResourceBuffer(path);
-    Image image = createImage(buffer, ignoreAlpha);
+    Image image = decode(buffer, ignoreAlpha);
     Utils.free(buffer);
+    if (key != null && image != null) {
+      ImageCache.store(key, image);
+    }
     return image;
   }
   
@@ -164,7 +184,149 @@ public final class Image implements AutoCloseable {
    * @see #createImage(ByteBuffer)
    */
   public static Image createImage(ByteBuffer buffer, boolean ignoreAlpha) {
-    return Ui.getUi().getWindow().createImage(buffer, ignoreAlpha);
+    if (!ImageCache.isEnabled()) {
+      return decode(buffer, ignoreAlpha);
+    }
+    String key = ImageCache.getKey(buffer, ignoreAlpha);
+    Image image = ImageCache.load(key);
+    if (image != null) {
+      return image;
+    }
+    image = decode(buffer, ignoreAlpha);
+    if (image != null) {
+      ImageCache.store(key, image);
+    }
+    return image;
+  }
+  
+  /**
+   * Sets the directory of the on-disk cache of decoded images, or disables the cache if null.
+   * <p>
+   * Decoding compressed images (JPEG, PNG, ...) is typically the most expensive part of loading an application. When the cache is enabled, the {@code createImage} functions store the pixels of each image they decode in a file of the cache directory, and on later runs map that file in memory instead of decoding the image again; the mapped pixels are then uploaded to the GPU directly. Images read from a {@link Path} are identified by their path, size and modification time, so a changed file is decoded again; images read from other sources are identified by a hash of their compressed data.
+   * <p>
+   * The cache directory is created if needed. The cache is never cleaned up automatically: the directory may be deleted at any time when no images are being created, for example to reclaim disk space. Failures to read or write the cache are ignored, and the images are decoded as if the cache was disabled. By default, the cache is disabled.
+   *
+   * @param directory The directory in which to cache decoded images, or null to disable the cache.
+   */
+  public static void setDiskCache(Path directory) {
+    ImageCache.setDirectory(directory);
+  }
+  
+  private static Image decode(ByteBuffer buffer, boolean ignoreAlpha) {
+    // decoding doesn't need the GL context, so this can run on any thread
+    int[] x = new int[1];
+    int[] y = new int[1];
+    ByteBuffer result = stbi_load_from_memory(buffer, x, y, new int[1], ignoreAlpha ? 3 : 4);
+    if (result == null) {
+      return null;
+    }
+    return createImageRaw(result, x[0], y[0], ignoreAlpha, 2);
+  }
+  
+  /**
+   * Creates a RGBA image from a path that represents a file which contains compressed image data, such as typically a .jpg file, asynchronously, by reading and decoding the file on a shared pool of worker threads.
+   * <p>
+   * This is the asynchronous version of {@link #createImage(Path)}: it returns immediately, so that many images can be decoded in parallel, using all processor cores, while the calling thread keeps rendering. The shared pool has one daemon thread per processor core; see {@link #createImageAsync(Path, boolean, Executor)} to use another executor.
+   * <p>
+   * The returned future completes with the created {@link Image}, <b>or null if there was an error decoding the file</b>, or completes exceptionally with an {@link IOException} if an IO exception is raised when reading the file. The image must then be uploaded on the thread that renders the UI, e.g. with {@link #upload()}.
+   *
+   * @param path The path to the file that contains compressed image data, must be non-null.
+   * @return A future of the {@link Image} that will be created from reading the file.
+   * @see #createImage(Path)
+   * @see #createImageAsync(Path, boolean, Executor)
+   */
+  public static CompletableFuture<Image> createImageAsync(Path path) {
+    return createImageAsync(path, false);
+  }
+  
+  /**
+   * Creates a RGB/RGBA image from a path that represents a file which contains compressed image data, such as typically a .jpg file, asynchronously, by reading and decoding the file on a shared pool of worker threads.
+   * <p>
+   * See {@link #createImageAsync(Path)} for details.
+   *
+   * @param path        The path to the file that contains compressed image data, must be non-null.
+   * @param ignoreAlpha Whether to ignore the transparency of the specified image, thus creating a RGB image (true), or not to ignore it, thus creating a RGBA image, with an alpha channel (false).
+   * @return A future of the {@link Image} that will be created from reading the file.
+   * @see #createImage(Path, boolean)
+   * @see #createImageAsync(Path, boolean, Executor)
+   */
+  public static CompletableFuture<Image> createImageAsync(Path path, boolean ignoreAlpha) {
+    return createImageAsync(path, ignoreAlpha, DecodePool.EXECUTOR);
+  }
+  
+  /**
+   * Creates a RGB/RGBA image from a path that represents a file which contains compressed image data, such as typically a .jpg file, asynchronously, by reading and decoding the file with the specified executor.
+   * <p>
+   * See {@link #createImageAsync(Path)} for details.
+   *
+   * @param path        The path to the file that contains compressed image data, must be non-null.
+   * @param ignoreAlpha Whether to ignore the transparency of the specified image, thus creating a RGB image (true), or not to ignore it, thus creating a RGBA image, with an alpha channel (false).
+   * @param executor    The executor that will read and decode the file, must be non-null.
+   * @return A future of the {@link Image} that will be created from reading the file.
+   * @see #createImage(Path, boolean)
+   */
+  public static CompletableFuture<Image> createImageAsync(Path path, boolean ignoreAlpha, Executor executor) {
+    Objects.requireNonNull(path);
+    Objects.requireNonNull(executor);
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return createImage(path, ignoreAlpha);
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, executor);
+  }
+  
+  /**
+   * Creates a RGBA image from a string representing a path that represents a file which contains compressed image data, such as typically a .jpg file, asynchronously, by reading and decoding the file on a shared pool of worker threads.
+   * <p>
+   * The string is resolved as in {@link #createImage(String)}. See {@link #createImageAsync(Path)} for details.
+   *
+   * @param path The string representing the path to the file that contains compressed image data, must be non-null.
+   * @return A future of the {@link Image} that will be created from reading the file.
+   * @see #createImage(String)
+   * @see #createImageAsync(String, boolean, Executor)
+   */
+  public static CompletableFuture<Image> createImageAsync(String path) {
+    return createImageAsync(path, false);
+  }
+  
+  /**
+   * Creates a RGB/RGBA image from a string representing a path that represents a file which contains compressed image data, such as typically a .jpg file, asynchronously, by reading and decoding the file on a shared pool of worker threads.
+   * <p>
+   * The string is resolved as in {@link #createImage(String)}. See {@link #createImageAsync(Path)} for details.
+   *
+   * @param path        The string representing the path to the file that contains compressed image data, must be non-null.
+   * @param ignoreAlpha Whether to ignore the transparency of the specified image, thus creating a RGB image (true), or not to ignore it, thus creating a RGBA image, with an alpha channel (false).
+   * @return A future of the {@link Image} that will be created from reading the file.
+   * @see #createImage(String, boolean)
+   * @see #createImageAsync(String, boolean, Executor)
+   */
+  public static CompletableFuture<Image> createImageAsync(String path, boolean ignoreAlpha) {
+    return createImageAsync(path, ignoreAlpha, DecodePool.EXECUTOR);
+  }
+  
+  /**
+   * Creates a RGB/RGBA image from a string representing a path that represents a file which contains compressed image data, such as typically a .jpg file, asynchronously, by reading and decoding the file with the specified executor.
+   * <p>
+   * The string is resolved as in {@link #createImage(String)}. See {@link #createImageAsync(Path)} for details.
+   *
+   * @param path        The string representing the path to the file that contains compressed image data, must be non-null.
+   * @param ignoreAlpha Whether to ignore the transparency of the specified image, thus creating a RGB image (true), or not to ignore it, thus creating a RGBA image, with an alpha channel (false).
+   * @param executor    The executor that will read and decode the file, must be non-null.
+   * @return A future of the {@link Image} that will be created from reading the file.
+   * @see #createImage(String, boolean)
+   */
+  public static CompletableFuture<Image> createImageAsync(String path, boolean ignoreAlpha, Executor executor) {
+    Objects.requireNonNull(path);
+    Objects.requireNonNull(executor);
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return createImage(path, ignoreAlpha);
+      } catch (IOException e) {
+        throw new CompletionException(e);
+      }
+    }, executor);
   }
   
   /**
@@ -209,14 +371,40 @@ public final class Image implements AutoCloseable {
    * <p>
    * This creates a single texture for this image, instead of using an {@link Atlas}, which is the recommended solution if there aren't other images of the exact same size and same usage (e.g. a tilemap) to be uploaded later. For the other use case, see {@link Atlas} and {@link Atlas#uploadImage(Image)}.
    * <p>
+   * If image packing is enabled with {@link Ui#setImagePacking(int)}, and the image is small enough, it is instead stored in a {@link PackedAtlas} shared by all such images, so that they can be drawn without switching textures.
+   * <p>
    * The {@link Image} <b>can and SHOULD be closed as soon as this method returns, as the returned {@link Texture} object doesn't need this {@link Image}.</b>
    *
    * @return The texture objct representing the uploaded Image, to be passed to the {@link Drawer} drawing methods.
    * @see Atlas
    * @see Atlas#uploadImage(Image)
+   * @see Ui#setImagePacking(int)
    */
   public Texture upload() {
-    return Ui.getUi().getWindow().uploadImage(this);
+    Window window = Ui.getUi().getWindow();
+    if (width <= window.getPackingSize() && height <= window.getPackingSize()) {
+      PackedAtlas atlas = window.getSharedAtlas();
+      // the pages of the shared atlas are smaller than the packing size on GPUs with a small maximum texture size
+      if (atlas.fits(this)) {
+        return atlas.uploadImage(this);
+      }
+    }
+    return window.uploadImage(this);
+  }
+  
+  /**
+   * Uploads the image to the GPU asynchronously, returning a texture object representing the image, to be passed to the drawing methods in {@link Drawer} when drawing a component.
+   * <p>
+   * Unlike {@link #upload()}, this method only copies the image data to a GPU buffer and starts the transfer to the texture, without waiting for it. The returned texture can be drawn as soon as {@link Texture#isReady()} returns true; until then, drawing it draws nothing. This lets large images be loaded while the UI keeps rendering, instead of stalling a frame.
+   * <p>
+   * The image is always uploaded to its own texture, regardless of {@link Ui#setImagePacking(int)}. The {@link Image} <b>can and SHOULD be closed as soon as this method returns, as the returned {@link Texture} object doesn't need this {@link Image}.</b>
+   *
+   * @return The texture object representing the uploaded Image, to be passed to the {@link Drawer} drawing methods once ready.
+   * @see #upload()
+   * @see Texture#isReady()
+   */
+  public Texture uploadAsync() {
+    return Ui.getUi().getWindow().uploadImageAsync(this);
   }
   
   /**
@@ -241,7 +429,7 @@ public final class Image implements AutoCloseable {
   @Override
   public void close() {
     if (allocation == 2) {
-      Ui.getUi().getWindow().freeImage(this);
+      stbi_image_free(data);
       return;
     }
     if (allocation == 1) {
@@ -249,4 +437,18 @@ public final class Image implements AutoCloseable {
       return;
     }
   }
+  
+  // created on first use
+  private static final class DecodePool {
+    static final ExecutorService EXECUTOR;
+    
+    static {
+      AtomicInteger count = new AtomicInteger();
+      EXECUTOR = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+        Thread thread = new Thread(runnable, "javaui-image-decoder-" + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
 }
@@ -0,0 +1,136 @@
+package fr.delthas.javaui;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+
+/**
+ * Optional on-disk cache of decoded images, so that an image decoded on a previous run is memory-mapped instead of being decoded again.
+ * <p>
+ * Files are keyed by their source: a file path with its size and modification time, or the hash of compressed data. Each cache file is a header (magic, version, width, height, channels) followed by the raw pixels, which are mapped and used as the image data directly.
+ */
+final class ImageCache {
+  private static final int MAGIC = 0x4A554943;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 5 * 4;
+  
+  private static volatile Path directory;
+  
+  private ImageCache() {
+    throw new IllegalStateException("This class cannot be instantiated!");
+  }
+  
+  static void setDirectory(Path directory) {
+    ImageCache.directory = directory;
+  }
+  
+  static boolean isEnabled() {
+    return directory != null;
+  }
+  
+  /**
+   * Returns the key of an image file, from its path, size and modification time, or null if the file can't be read.
+   */
+  static String getKey(Path path, boolean ignoreAlpha) {
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (IOException e) {
+      return null;
+    }
+    if (!attributes.isRegularFile()) {
+      return null;
+    }
+    String source = "path:" + path.toAbsolutePath().normalize() + ":" + attributes.size() + ":" + attributes.lastModifiedTime().toMillis() + ":" + ignoreAlpha;
+    MessageDigest digest = Utils.getDigest();
+    digest.update(source.getBytes(StandardCharsets.UTF_8));
+    return Utils.toHex(digest.digest());
+  }
+  
+  /**
+   * Returns the key of compressed image data, from its hash.
+   */
+  static String getKey(ByteBuffer compressed, boolean ignoreAlpha) {
+    MessageDigest digest = Utils.getDigest();
+    digest.update(("data:" + ignoreAlpha + ":").getBytes(StandardCharsets.UTF_8));
+    digest.update(compressed.duplicate());
+    return Utils.toHex(digest.digest());
+  }
+  
+  /**
+   * Maps the cached image of the specified key, or returns null if it isn't cached.
+   */
+  static Image load(String key) {
+    Path directory = ImageCache.directory;
+    if (directory == null) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(directory.resolve(key), StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_SIZE) {
+        return null;
+      }
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      mapped.order(ByteOrder.LITTLE_ENDIAN);
+      if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+        return null;
+      }
+      int width = mapped.getInt(8);
+      int height = mapped.getInt(12);
+      int channels = mapped.getInt(16);
+      if ((channels != 3 && channels != 4) || size != HEADER_SIZE + (long) width * height * channels) {
+        return null;
+      }
+      mapped.position(HEADER_SIZE);
+      // the mapping is released when the buffer is garbage collected
+      return Image.createImageRaw(mapped.slice(), width, height, channels == 3, 0);
+    } catch (IOException e) {
+      // a cache that can't be read is a cache miss
+      return null;
+    }
+  }
+  
+  /**
+   * Writes a decoded image to the cache with the specified key, ignoring failures since the cache is only an optimization.
+   */
+  static void store(String key, Image image) {
+    Path directory = ImageCache.directory;
+    if (directory == null) {
+      return;
+    }
+    Path temp = null;
+    try {
+      Files.createDirectories(directory);
+      // written to a temporary file then renamed, so that concurrent readers never see a partial file
+      temp = Files.createTempFile(directory, key, ".tmp");
+      try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(image.width).putInt(image.height).putInt(image.ignoreAlpha ? 3 : 4);
+        header.flip();
+        ByteBuffer data = image.data.duplicate();
+        while (header.hasRemaining() || data.hasRemaining()) {
+          channel.write(new ByteBuffer[]{header, data});
+        }
+      }
+      Files.move(temp, directory.resolve(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      temp = null;
+    } catch (IOException ignore) {
+    } finally {
+      if (temp != null) {
+        try {
+          Files.deleteIfExists(temp);
+        } catch (IOException ignore) {
+        }
+      }
+    }
+  }
+}
@@ -47,5 +47,6 @@ public final class Label extends Component {
    */
   public void setText(String text) {
     this.text = text;
+    markDirty();
   }
 }
@@ -23,6 +23,10 @@ import java.util.Objects;
 public final class Layer {
   private final List<Component> components = new ArrayList<>();
   private boolean opaque;
+  private boolean recorded;
+  private DrawList drawList;
+  private boolean cached;
+  private LayerCache cache;
   
   /**
    * Creates a new empty layer without any component, that is not opaque.
@@ -63,6 +67,7 @@ public final class Layer {
     }
     component.reset(this, x, y, width, height);
     components.add(component);
+    component.markDirty();
     return this;
   }
   
@@ -90,10 +95,16 @@ public final class Layer {
     if (component.getLayer() != this) {
       return;
     }
+    component.markDirty();
     component.removeFromLayer();
     components.remove(component);
   }
   
+  void markDirty(double x, double y, double width, double height) {
+    invalidate();
+    Ui.getUi().getWindow().damage(x, y, width, height);
+  }
+  
   protected boolean pushMouseMove(double x, double y, long time) {
     for (Component component : components) {
       if (component.pushMouseMove(x - component.getX(), y - component.getY(), time)) {
@@ -140,6 +151,47 @@ public final class Layer {
   }
   
   protected void render(InputState inputState, Drawer drawer) {
+    if (!cached) {
+      renderContent(inputState, drawer);
+      return;
+    }
+    if (cache == null) {
+      cache = new LayerCache();
+    }
+    if (drawer.drawCache(cache)) {
+      return;
+    }
+    drawer.startCache(cache);
+    try {
+      renderContent(inputState, drawer);
+      cache.valid = true;
+    } finally {
+      drawer.stopCache();
+    }
+    drawer.drawCache(cache);
+  }
+  
+  private void renderContent(InputState inputState, Drawer drawer) {
+    if (!recorded) {
+      renderComponents(inputState, drawer);
+      return;
+    }
+    if (drawList == null) {
+      drawList = new DrawList();
+    }
+    if (drawer.replay(drawList)) {
+      return;
+    }
+    drawer.startRecording(drawList);
+    try {
+      renderComponents(inputState, drawer);
+      drawList.valid = true;
+    } finally {
+      drawer.stopRecording();
+    }
+  }
+  
+  private void renderComponents(InputState inputState, Drawer drawer) {
     for (Component component : components) {
       drawer.pushTranslate(component.getX(), component.getY());
       component.render(inputState, drawer);
@@ -180,7 +232,96 @@ public final class Layer {
    * @return Itself, for chaining.
    */
   public Layer setOpaque(boolean opaque) {
-    this.opaque = opaque;
+    if (this.opaque != opaque) {
+      this.opaque = opaque;
+      Ui.getUi().getWindow().damageAll();
+    }
+    return this;
+  }
+  
+  /**
+   * Returns whether the layer is recorded.
+   * <p>
+   * See {@link #setRecorded(boolean)} for an explanation of recorded layers.
+   *
+   * @return Whether the layer is recorded (true), or not (false).
+   * @see #setRecorded(boolean)
+   */
+  public boolean isRecorded() {
+    return recorded;
+  }
+  
+  /**
+   * Sets whether the layer is recorded.
+   * <p>
+   * By default, a layer renders each frame by calling {@link Component#render(InputState, Drawer)} on all its components. A recorded layer instead records all the draws of its components once, into a compact list of draw commands (after translation and text layout), and then replays that list on the next frames, without calling the components at all. This makes rendering layers whose content rarely changes, such as static panels or HUD frames, much cheaper.
+   * <p>
+   * <b>The recorded draws are reused until the layer is invalidated, so {@link #invalidate()} or {@link Component#markDirty()} MUST be called whenever the rendering of any of the layer components would change</b> (for example because some text or some state of a component changed, or because a texture it draws was destroyed). All built-in components call {@link Component#markDirty()} when their state changes, and adding or removing a component automatically invalidates the layer.
+   *
+   * @param recorded Whether the layer is to be recorded (true), or not (false).
+   * @return Itself, for chaining.
+   * @see #invalidate()
+   */
+  public Layer setRecorded(boolean recorded) {
+    this.recorded = recorded;
+    if (!recorded) {
+      drawList = null;
+    } else {
+      invalidate();
+    }
+    return this;
+  }
+  
+  /**
+   * Invalidates the draws recorded for this layer and its cached rendering, so that they are recorded and rendered again on the next frame.
+   * <p>
+   * See {@link #setRecorded(boolean)} and {@link #setCached(boolean)} for an explanation of recorded and cached layers. If the layer is neither recorded nor cached, this is a no-op.
+   *
+   * @see #setRecorded(boolean)
+   * @see #setCached(boolean)
+   */
+  public void invalidate() {
+    if (drawList != null) {
+      drawList.valid = false;
+    }
+    if (cache != null) {
+      cache.valid = false;
+    }
+  }
+  
+  /**
+   * Returns whether the layer is cached.
+   * <p>
+   * See {@link #setCached(boolean)} for an explanation of cached layers.
+   *
+   * @return Whether the layer is cached (true), or not (false).
+   * @see #setCached(boolean)
+   */
+  public boolean isCached() {
+    return cached;
+  }
+  
+  /**
+   * Sets whether the layer is cached.
+   * <p>
+   * A cached layer is rendered once into an offscreen texture the size of the screen, which is then drawn to the screen with a single textured quad on the next frames, as long as the layer is unchanged. This makes layers that are expensive to render but rarely change very cheap to draw, for example a heavy dashboard below a modal dialog layer. Each cached layer uses as much GPU memory as the screen.
+   * <p>
+   * <b>The cached rendering is reused until the layer is invalidated, either explicitly with {@link #invalidate()}, or automatically when any of its components is marked dirty with {@link Component#markDirty()}</b> (which all built-in components call when their state changes), or is added or removed.
+   * <p>
+   * A layer can be both cached and recorded (see {@link #setRecorded(boolean)}), in which case the recorded draws are used to render the layer to its offscreen texture.
+   *
+   * @param cached Whether the layer is to be cached (true), or not (false).
+   * @return Itself, for chaining.
+   * @see #invalidate()
+   */
+  public Layer setCached(boolean cached) {
+    this.cached = cached;
+    if (!cached && cache != null) {
+      Ui.getUi().getWindow().deleteCache(cache);
+      cache = null;
+    } else {
+      invalidate();
+    }
     return this;
   }
 }
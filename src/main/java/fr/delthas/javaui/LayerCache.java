@@ -0,0 +1,10 @@
+package fr.delthas.javaui;
+
+/**
+ * Offscreen render target that holds the last rendering of a cached {@link Layer}, owned by the Window.
+ */
+final class LayerCache {
+  int framebuffer;
+  int texture;
+  boolean valid;
+}
@@ -0,0 +1,220 @@
+package fr.delthas.javaui;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * PackedAtlas represents a dynamic texture atlas, that stores many small images of any size in a few large texture objects, called pages.
+ * <p>
+ * Unlike an {@link Atlas}, whose images must all have the same size, a PackedAtlas accepts images of any size up to its page size, and packs them next to each other in its pages. Images stored in the same page are drawn without switching textures, so storing the icons, portraits, or UI decorations of an application in a PackedAtlas lets them be drawn in a few draw calls.
+ * <p>
+ * When all pages are full, a new page is added. The space of an image is reclaimed when its {@link Texture} is {@link Texture#destroy() destroyed}, and a page whose images are all destroyed is destroyed. After many images of various sizes were destroyed, the free space of the pages may be fragmented in many small areas, which can be fixed with {@link #compact()}.
+ * <p>
+ * To create a PackedAtlas, use {@link #createPackedAtlas(int)}. To add an image to a PackedAtlas (and upload it to the GPU), use {@link #uploadImage(Image)}. {@link Image#upload()} can also store small images in a shared PackedAtlas automatically, see {@link Ui#setImagePacking(int)}.
+ *
+ * @see #createPackedAtlas(int)
+ * @see #uploadImage(Image)
+ * @see Atlas
+ * @see Image
+ */
+public final class PackedAtlas {
+  /**
+   * The default size of the pages of a PackedAtlas, in pixels.
+   */
+  public static final int DEFAULT_PAGE_SIZE = 2048;
+  // empty pixels between images, so that linear filtering doesn't sample the neighboring images
+  private static final int PADDING = 1;
+  // pages whose free space is more fragmented than this are repacked by compact()
+  private static final double FRAGMENTATION_THRESHOLD = 0.25;
+  
+  final int pageSize;
+  final List<Page> pages = new ArrayList<>();
+  boolean destroyed;
+  
+  PackedAtlas(int pageSize) {
+    this.pageSize = pageSize;
+  }
+  
+  /**
+   * Creates an empty PackedAtlas, whose pages are square textures of the specified size.
+   * <p>
+   * The page size bounds the size of the images that can be stored in the atlas, whose width and height must be smaller than the page size. Larger pages let more images be drawn without switching textures, but use more GPU memory even when they are mostly empty.
+   *
+   * @param pageSize The width and height of the pages of the atlas, in pixels, must be positive and not greater than the maximum texture size of the GPU, typically {@link #DEFAULT_PAGE_SIZE}.
+   * @return The created PackedAtlas.
+   * @throws IllegalArgumentException If the page size is not positive, or greater than the maximum texture size of the GPU.
+   * @see #destroy()
+   */
+  public static PackedAtlas createPackedAtlas(int pageSize) {
+    return Ui.getUi().getWindow().createPackedAtlas(pageSize);
+  }
+  
+  /**
+   * Returns whether an image, with its padding, fits in the pages of this atlas.
+   */
+  boolean fits(Image image) {
+    return image.width + PADDING <= pageSize && image.height + PADDING <= pageSize;
+  }
+  
+  /**
+   * Adds an image to this PackedAtlas (and uploads it to the GPU), adding a page to the atlas if the image doesn't fit in any of its pages.
+   *
+   * @param image The image to add to this PackedAtlas, must not be null, and its width and height must be smaller than the page size of this atlas.
+   * @return A texture object representing the image in this PackedAtlas, to be used to draw the image with the various draw functions.
+   * @throws IllegalArgumentException If the image doesn't fit in the pages of this atlas.
+   * @throws IllegalStateException    If this atlas is destroyed.
+   */
+  public Texture uploadImage(Image image) {
+    Objects.requireNonNull(image);
+    if (destroyed) {
+      throw new IllegalStateException("The atlas is destroyed!");
+    }
+    if (!fits(image)) {
+      throw new IllegalArgumentException("Image of size " + image.width + "x" + image.height + " doesn't fit in atlas pages of size " + pageSize + "!");
+    }
+    PackedTexture texture = new PackedTexture(this, image.width, image.height);
+    if (!place(texture)) {
+      Page page = new Page(pageSize);
+      Ui.getUi().getWindow().createPage(this, page);
+      pages.add(page);
+      place(texture);
+    }
+    Ui.getUi().getWindow().uploadPackedImage(texture, image);
+    return texture;
+  }
+  
+  private boolean place(PackedTexture texture) {
+    for (Page page : pages) {
+      if (place(page, texture)) {
+        return true;
+      }
+    }
+    return false;
+  }
+  
+  private static boolean place(Page page, PackedTexture texture) {
+    long position = page.packer.insert(texture.width + PADDING, texture.height + PADDING);
+    if (position == -1) {
+      return false;
+    }
+    texture.page = page;
+    texture.x = (int) (position >>> 32);
+    texture.y = (int) position;
+    page.children.add(texture);
+    return true;
+  }
+  
+  void destroyImage(PackedTexture texture) {
+    if (destroyed) {
+      return;
+    }
+    Page page = texture.page;
+    page.children.remove(texture);
+    page.packer.remove(texture.x, texture.y, texture.width + PADDING, texture.height + PADDING);
+    if (page.children.isEmpty()) {
+      pages.remove(page);
+      Ui.getUi().getWindow().destroyPage(page);
+    } else {
+      // clear the space so that an image later packed next to it doesn't sample the destroyed image
+      Ui.getUi().getWindow().clearPackedRegion(page, texture.x, texture.y, texture.width + PADDING, texture.height + PADDING);
+    }
+  }
+  
+  /**
+   * Repacks the images of the pages whose free space is fragmented, so that their free space is contiguous again and can store larger images, and destroys the pages that become empty.
+   * <p>
+   * The images are moved on the GPU, so the {@link Texture} objects of the images stay valid and don't need to be uploaded again. This is a costly operation that should be done when a lot of images were destroyed, for example when loading a new level, rather than every frame.
+   *
+   * @throws IllegalStateException If this atlas is destroyed.
+   */
+  public void compact() {
+    if (destroyed) {
+      throw new IllegalStateException("The atlas is destroyed!");
+    }
+    List<PackedTexture> textures = new ArrayList<>();
+    List<Page> oldPages = new ArrayList<>();
+    for (Page page : pages) {
+      if (page.packer.getFragmentation() > FRAGMENTATION_THRESHOLD) {
+        textures.addAll(page.children);
+        oldPages.add(page);
+      }
+    }
+    if (oldPages.isEmpty()) {
+      return;
+    }
+    pages.removeAll(oldPages);
+    // largest first packs tighter
+    textures.sort(Comparator.comparingInt((PackedTexture t) -> t.height).thenComparingInt(t -> t.width).reversed());
+    Window window = Ui.getUi().getWindow();
+    List<Page> newPages = new ArrayList<>();
+    for (PackedTexture texture : textures) {
+      Page oldPage = texture.page;
+      int oldX = texture.x;
+      int oldY = texture.y;
+      boolean placed = false;
+      for (Page page : newPages) {
+        if (place(page, texture)) {
+          placed = true;
+          break;
+        }
+      }
+      if (!placed) {
+        Page page = new Page(pageSize);
+        window.createPage(this, page);
+        newPages.add(page);
+        place(page, texture);
+      }
+      window.copyPackedImage(oldPage, oldX, oldY, texture.page, texture.x, texture.y, texture.width, texture.height);
+    }
+    for (Page page : oldPages) {
+      window.destroyPage(page);
+    }
+    pages.addAll(newPages);
+  }
+  
+  /**
+   * Destroys all of the {@link Texture} objects stored in this PackedAtlas (that is, all images stored in this PackedAtlas can't be drawn anymore), then destroys this PackedAtlas.
+   * <p>
+   * Use this function when you know you won't need to draw the images stored in this PackedAtlas anymore, to free the GPU memory of the images.
+   */
+  public void destroy() {
+    if (destroyed) {
+      return;
+    }
+    destroyed = true;
+    Window window = Ui.getUi().getWindow();
+    for (Page page : pages) {
+      window.destroyPage(page);
+    }
+    pages.clear();
+  }
+  
+  /**
+   * @return The width and height of the pages of this PackedAtlas, in pixels; the images added to it must be smaller than this size.
+   */
+  public int getPageSize() {
+    return pageSize;
+  }
+  
+  /**
+   * @return The number of pages (texture objects) currently used by this PackedAtlas.
+   */
+  public int getPageCount() {
+    return pages.size();
+  }
+  
+  static final class Page {
+    final RectanglePacker packer;
+    final Set<PackedTexture> children = new HashSet<>();
+    int texture;
+    int framebuffer;
+    
+    Page(int size) {
+      packer = new RectanglePacker(size);
+    }
+  }
+}
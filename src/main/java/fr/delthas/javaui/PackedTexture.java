@@ -0,0 +1,34 @@
+package fr.delthas.javaui;
+
+final class PackedTexture implements Texture {
+  final PackedAtlas atlas;
+  final int width;
+  final int height;
+  // moved when the atlas is compacted
+  PackedAtlas.Page page;
+  int x;
+  int y;
+  boolean destroyed = false;
+  
+  PackedTexture(PackedAtlas atlas, int width, int height) {
+    this.atlas = atlas;
+    this.width = width;
+    this.height = height;
+  }
+  
+  public void destroy() {
+    if (destroyed) {
+      return;
+    }
+    destroyed = true;
+    atlas.destroyImage(this);
+  }
+  
+  public int getWidth() {
+    return width;
+  }
+  
+  public int getHeight() {
+    return height;
+  }
+}
@@ -0,0 +1,137 @@
+package fr.delthas.javaui;
+
+import java.util.Arrays;
+
+/**
+ * Guillotine rectangle packer: keeps a list of free rectangles of a square area, and places each rectangle in the free rectangle that fits it best, splitting the remainder in two.
+ * <p>
+ * Freed rectangles are added back to the free list, and merged with the free rectangles they share an edge with, so that space can be reused by rectangles of other sizes.
+ */
+final class RectanglePacker {
+  private final int size;
+  // per free rectangle: x, y, width, height
+  private int[] free = new int[4 * 16];
+  private int freeCount;
+  private long usedArea;
+  
+  RectanglePacker(int size) {
+    this.size = size;
+    clear();
+  }
+  
+  void clear() {
+    freeCount = 0;
+    usedArea = 0;
+    addFree(0, 0, size, size);
+  }
+  
+  /**
+   * Places a rectangle, returns its position packed as x << 32 | y, or -1 if there isn't enough room.
+   */
+  long insert(int width, int height) {
+    int best = -1;
+    int bestShortSide = Integer.MAX_VALUE;
+    int bestLongSide = Integer.MAX_VALUE;
+    for (int i = 0; i < freeCount; i++) {
+      int leftoverX = free[i * 4 + 2] - width;
+      int leftoverY = free[i * 4 + 3] - height;
+      if (leftoverX < 0 || leftoverY < 0) {
+        continue;
+      }
+      int shortSide = Math.min(leftoverX, leftoverY);
+      int longSide = Math.max(leftoverX, leftoverY);
+      if (shortSide < bestShortSide || shortSide == bestShortSide && longSide < bestLongSide) {
+        best = i;
+        bestShortSide = shortSide;
+        bestLongSide = longSide;
+      }
+    }
+    if (best == -1) {
+      return -1;
+    }
+    int x = free[best * 4];
+    int y = free[best * 4 + 1];
+    int freeWidth = free[best * 4 + 2];
+    int freeHeight = free[best * 4 + 3];
+    removeFree(best);
+    // split along the shorter leftover axis, so that the larger remaining rectangle is as large as possible
+    int leftoverX = freeWidth - width;
+    int leftoverY = freeHeight - height;
+    if (leftoverX < leftoverY) {
+      addFree(x + width, y, leftoverX, height);
+      addFree(x, y + height, freeWidth, leftoverY);
+    } else {
+      addFree(x + width, y, leftoverX, freeHeight);
+      addFree(x, y + height, width, leftoverY);
+    }
+    usedArea += (long) width * height;
+    return (long) x << 32 | y;
+  }
+  
+  void remove(int x, int y, int width, int height) {
+    usedArea -= (long) width * height;
+    addFree(x, y, width, height);
+    mergeFree();
+  }
+  
+  /**
+   * Returns the ratio of the free area that isn't in the largest free rectangle, 0 meaning that all the free area is contiguous.
+   */
+  double getFragmentation() {
+    long freeArea = (long) size * size - usedArea;
+    if (freeArea == 0) {
+      return 0;
+    }
+    long largest = 0;
+    for (int i = 0; i < freeCount; i++) {
+      largest = Math.max(largest, (long) free[i * 4 + 2] * free[i * 4 + 3]);
+    }
+    return 1 - (double) largest / freeArea;
+  }
+  
+  private void addFree(int x, int y, int width, int height) {
+    if (width <= 0 || height <= 0) {
+      return;
+    }
+    if (freeCount * 4 == free.length) {
+      free = Arrays.copyOf(free, free.length * 2);
+    }
+    free[freeCount * 4] = x;
+    free[freeCount * 4 + 1] = y;
+    free[freeCount * 4 + 2] = width;
+    free[freeCount * 4 + 3] = height;
+    freeCount++;
+  }
+  
+  private void removeFree(int i) {
+    freeCount--;
+    System.arraycopy(free, freeCount * 4, free, i * 4, 4);
+  }
+  
+  private void mergeFree() {
+    boolean merged = true;
+    while (merged) {
+      merged = false;
+      for (int i = 0; i < freeCount && !merged; i++) {
+        for (int j = i + 1; j < freeCount && !merged; j++) {
+          merged = tryMerge(i, j) || tryMerge(j, i);
+        }
+      }
+    }
+  }
+  
+  // merges b into a if b is directly right of or above a with the same height or width
+  private boolean tryMerge(int a, int b) {
+    int ax = free[a * 4], ay = free[a * 4 + 1], aw = free[a * 4 + 2], ah = free[a * 4 + 3];
+    int bx = free[b * 4], by = free[b * 4 + 1], bw = free[b * 4 + 2], bh = free[b * 4 + 3];
+    if (ay == by && ah == bh && ax + aw == bx) {
+      free[a * 4 + 2] = aw + bw;
+    } else if (ax == bx && aw == bw && ay + ah == by) {
+      free[a * 4 + 3] = ah + bh;
+    } else {
+      return false;
+    }
+    removeFree(b);
+    return true;
+  }
+}
@@ -0,0 +1,63 @@
+package fr.delthas.javaui;
+
+/**
+ * RenderStats stores counters about the GL work done to render a frame, that may be useful to measure the rendering cost of a UI.
+ * <p>
+ * The statistics of the last rendered frame are returned by {@link Ui#getRenderStats()}.
+ */
+public class RenderStats {
+  private final int drawCalls;
+  private final int stateCalls;
+  private final int elidedStateCalls;
+  private final int culledDraws;
+  
+  RenderStats(int drawCalls, int stateCalls, int elidedStateCalls, int culledDraws) {
+    this.drawCalls = drawCalls;
+    this.stateCalls = stateCalls;
+    this.elidedStateCalls = elidedStateCalls;
+    this.culledDraws = culledDraws;
+  }
+  
+  /**
+   * Returns the number of GL draw calls that were issued during the frame.
+   *
+   * @return The number of draw calls of the frame.
+   */
+  public int getDrawCalls() {
+    return drawCalls;
+  }
+  
+  /**
+   * Returns the number of GL state changes (program, vertex array, buffer and texture binds, and uniform uploads) that were issued during the frame.
+   *
+   * @return The number of state changes that were sent to GL during the frame.
+   * @see #getElidedStateCalls()
+   */
+  public int getStateCalls() {
+    return stateCalls;
+  }
+  
+  /**
+   * Returns the number of GL state changes that were skipped during the frame because the state was already set to the requested value.
+   *
+   * @return The number of state changes that were not sent to GL during the frame because they were redundant.
+   * @see #getStateCalls()
+   */
+  public int getElidedStateCalls() {
+    return elidedStateCalls;
+  }
+  
+  /**
+   * Returns the number of primitives (rectangles, lines, circles, rings, images and texts) that were skipped during the frame because they were entirely outside of the screen, of the current clip rectangle (see {@link Drawer#pushClip(double, double, double, double)}), or of the region being redrawn when using damage tracking.
+   *
+   * @return The number of primitives that were skipped during the frame because they were not visible.
+   */
+  public int getCulledDraws() {
+    return culledDraws;
+  }
+  
+  @Override
+  public String toString() {
+    return "RenderStats{drawCalls=" + drawCalls + ", stateCalls=" + stateCalls + ", elidedStateCalls=" + elidedStateCalls + ", culledDraws=" + culledDraws + "}";
+  }
+}
@@ -4,6 +4,8 @@ final class SimpleTexture implements Texture {
   final int width;
   final int height;
   final int texture;
+  // false until an asynchronous upload completes
+  boolean ready = true;
   boolean destroyed;
   
   SimpleTexture(int width, int height, int texture) {
@@ -20,6 +22,13 @@ final class SimpleTexture implements Texture {
     Ui.getUi().getWindow().destroyImage(this);
   }
   
+  public boolean isReady() {
+    if (!ready && !destroyed) {
+      Ui.getUi().getWindow().pollUpload(this);
+    }
+    return ready && !destroyed;
+  }
+  
   public int getWidth() {
     return width;
   }
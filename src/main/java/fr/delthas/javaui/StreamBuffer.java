@@ -0,0 +1,149 @@
+package fr.delthas.javaui;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.lwjgl.opengl.ARBBufferStorage.GL_MAP_COHERENT_BIT;
+import static org.lwjgl.opengl.ARBBufferStorage.GL_MAP_PERSISTENT_BIT;
+import static org.lwjgl.opengl.ARBBufferStorage.glBufferStorage;
+import static org.lwjgl.opengl.GL15.*;
+import static org.lwjgl.opengl.GL30.GL_MAP_WRITE_BIT;
+import static org.lwjgl.opengl.GL30.glMapBufferRange;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.system.MemoryUtil.memAlloc;
+import static org.lwjgl.system.MemoryUtil.memFree;
+
+/**
+ * Vertex buffer through which all batched draws of the Window are streamed to the GPU.
+ * <p>
+ * When buffer storage is available, the buffer is persistently mapped and used as a ring of segments: batches are written in place, and a fence is inserted after the last draw reading a segment, so that the segment is only written again once the GPU is done with it. Otherwise, batches are written to a staging buffer, and uploaded at offset 0 after orphaning the previous storage of the buffer.
+ * <p>
+ * A batch is started with {@link #begin(int, int)}, written to the returned buffer, and ended with {@link #end(ByteBuffer)}, which returns its offset in the GL buffer.
+ */
+final class StreamBuffer {
+  // number of segments of the ring, which is the number of batches (or frames) that may be in flight
+  private static final int SEGMENTS = 4;
+  
+  private final GlState gl;
+  private final boolean persistent;
+  private final int segmentSize;
+  final int buffer;
+  // persistent: the whole mapped ring; otherwise: the staging buffer
+  private final ByteBuffer data;
+  private final long[] fences = new long[SEGMENTS];
+  private int segment;
+  // offset of the current batch, and offset after the last batch
+  private int start;
+  private int head;
+  
+  StreamBuffer(GlState gl, boolean persistent, int segmentSize) {
+    this.gl = gl;
+    this.persistent = persistent;
+    this.segmentSize = segmentSize;
+    buffer = glGenBuffers();
+    gl.bindArrayBuffer(buffer);
+    if (persistent) {
+      int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+      glBufferStorage(GL_ARRAY_BUFFER, (long) segmentSize * SEGMENTS, flags);
+      ByteBuffer mapped = glMapBufferRange(GL_ARRAY_BUFFER, 0, (long) segmentSize * SEGMENTS, flags);
+      if (mapped == null) {
+        throw new RuntimeException("Couldn't map the streaming vertex buffer!");
+      }
+      data = mapped.order(ByteOrder.nativeOrder());
+    } else {
+      glBufferData(GL_ARRAY_BUFFER, segmentSize, GL_STREAM_DRAW);
+      data = memAlloc(segmentSize);
+    }
+  }
+  
+  /**
+   * Starts a batch of elements of the specified stride, that will hold at least the specified number of bytes.
+   *
+   * @return The buffer to write the batch to, from its position up to its limit.
+   */
+  ByteBuffer begin(int stride, int size) {
+    if (!persistent) {
+      data.clear();
+      start = 0;
+      return data;
+    }
+    int segmentEnd = (segment + 1) * segmentSize;
+    // align to the stride so that the batch can be drawn with a first vertex or instance instead of an offset
+    start = (head + stride - 1) / stride * stride;
+    if (start + size > segmentEnd) {
+      // the draws reading the segment were all issued, fence them and move to the next segment
+      fences[segment] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+      segment = (segment + 1) % SEGMENTS;
+      await(segment);
+      segmentEnd = (segment + 1) * segmentSize;
+      // the segment size isn't a multiple of the stride, so the start of a segment must be aligned too
+      start = (segment * segmentSize + stride - 1) / stride * stride;
+      if (start + size > segmentEnd) {
+        throw new IllegalArgumentException("The batch doesn't fit in a segment of the streaming vertex buffer: " + size + " bytes");
+      }
+    }
+    data.limit(segmentEnd).position(start);
+    return data;
+  }
+  
+  /**
+   * Ends the current batch, whose data ends at the position of the buffer returned by {@link #begin(int, int)}, and binds the GL buffer.
+   *
+   * @return The offset of the batch in the GL buffer, in bytes.
+   */
+  int end(ByteBuffer batch) {
+    gl.bindArrayBuffer(buffer);
+    if (!persistent) {
+      batch.flip();
+      // orphan the previous storage so that the driver doesn't wait for the previous draw to complete
+      glBufferData(GL_ARRAY_BUFFER, segmentSize, GL_STREAM_DRAW);
+      glBufferSubData(GL_ARRAY_BUFFER, 0, batch);
+      batch.clear();
+      return 0;
+    }
+    // the next batch starts after this one in the same segment
+    head = batch.position();
+    return start;
+  }
+  
+  /**
+   * Returns the number of bytes written to the current batch.
+   */
+  int getSize(ByteBuffer batch) {
+    return batch.position() - start;
+  }
+  
+  private void await(int segment) {
+    long fence = fences[segment];
+    if (fence == 0) {
+      return;
+    }
+    while (true) {
+      int result = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, 1000000000L);
+      if (result == GL_ALREADY_SIGNALED || result == GL_CONDITION_SATISFIED) {
+        break;
+      }
+      if (result == GL_WAIT_FAILED) {
+        throw new RuntimeException("Failed waiting for the streaming vertex buffer fence!");
+      }
+    }
+    glDeleteSync(fence);
+    fences[segment] = 0;
+  }
+  
+  void destroy() {
+    for (int i = 0; i < SEGMENTS; i++) {
+      if (fences[i] != 0) {
+        glDeleteSync(fences[i]);
+        fences[i] = 0;
+      }
+    }
+    if (persistent) {
+      gl.bindArrayBuffer(buffer);
+      glUnmapBuffer(GL_ARRAY_BUFFER);
+    } else {
+      memFree(data);
+    }
+    glDeleteBuffers(buffer);
+  }
+}
@@ -28,6 +28,7 @@ public class TextField extends Component {
   private int selectionEnd = 0;
   private boolean selecting = false;
   private String hiddenCharacter;
+  private boolean hovered = false;
   
   /**
    * Creates a text field (enabled), with an empty text, no hint text, that is not a password field.
@@ -68,6 +69,7 @@ public class TextField extends Component {
   public void setHintText(String hintText) {
     Objects.requireNonNull(hintText);
     this.hintText = hintText;
+    markDirty();
   }
   
   @Override
@@ -159,6 +161,7 @@ public class TextField extends Component {
       selectionStart = 0;
       selectionEnd = length(drawnText);
       selecting = false;
+      markDirty();
       return true;
     }
     if (key == Ui.KEY_BACKSPACE) {
@@ -193,6 +196,7 @@ public class TextField extends Component {
     }
     selecting = false;
     selectionStart = selectionEnd = caretPosition;
+    markDirty();
     return true;
   }
   
@@ -206,6 +210,7 @@ public class TextField extends Component {
       selectionStart = caretPosition;
       selectionEnd = caretPosition;
       selecting = true;
+      markDirty();
       return true;
     }
     if (!down) {
@@ -217,11 +222,17 @@ public class TextField extends Component {
   
   @Override
   protected boolean pushMouseMove(double x, double y, long time) {
+    boolean hovered = isInBounds(x, y);
+    if (this.hovered != hovered) {
+      this.hovered = hovered;
+      markDirty();
+    }
     if (!selecting) {
       return false;
     }
     caretPosition = getCaretPositionFor(x);
     selectionEnd = caretPosition;
+    markDirty();
     return false;
   }
   
@@ -250,6 +261,7 @@ public class TextField extends Component {
     }
     sizes = Ui.getUi().getTextPositions(drawnText, Font.COMIC, 16);
     metrics = Ui.getUi().getFontMetrics(Font.COMIC, 16);
+    markDirty();
     return true;
   }
   
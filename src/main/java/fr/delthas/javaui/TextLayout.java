@@ -0,0 +1,504 @@
+package fr.delthas.javaui;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * TextLayout is a paragraph of text laid out in lines: it breaks a text into lines that fit in a maximum width, aligns them, and gives the position of the lines and of every character, to be drawn with {@link Drawer#paragraph(double, double, TextLayout)}.
+ * <p>
+ * Lines are broken at line feeds, and, depending on the {@link Wrap wrap mode}, where the text would exceed the maximum width: between words, or between any characters. Whitespace at the end of a broken line is not part of the line width, and a word longer than the maximum width is broken between characters.
+ * <p>
+ * A layout is meant to be kept and reused: the text is measured once when it is set, and the lines are only broken again when a change can affect them. In particular, changing the maximum width, for example when resizing a component, only runs the line breaking on the already measured text, and doesn't even do that if the lines would be the same. Drawing a layout draws its lines as cached runs of glyphs, so drawing an unchanged layout is about as cheap as drawing as many lines of text with {@link Drawer#text(double, double, String, Font, double)}.
+ * <p>
+ * The layout is computed lazily, on the first query after a change, with {@link FontMetrics} text measurement: it doesn't need the UI system to be created, and can be computed on any thread, but a layout must not be used by several threads at once.
+ * <p>
+ * All positions are in pixels, relative to the upper-left corner of the layout box; y positions are negative since the y axis points up.
+ */
+public final class TextLayout {
+  /**
+   * Where lines that exceed the maximum width of a layout are broken.
+   */
+  public enum Wrap {
+    /**
+     * Lines are only broken at line feeds, and may exceed the maximum width.
+     */
+    NONE,
+    /**
+     * Lines are broken between words, at whitespace; a word longer than the maximum width is broken between characters.
+     */
+    WORD,
+    /**
+     * Lines are broken between any characters.
+     */
+    CHARACTER
+  }
+  
+  /**
+   * How lines are aligned horizontally in the layout box.
+   * <p>
+   * The layout box is as wide as the maximum width of the layout, or as the longest line if the maximum width is infinite.
+   */
+  public enum Alignment {
+    /**
+     * Lines are aligned to the left of the layout box.
+     */
+    LEFT,
+    /**
+     * Lines are centered in the layout box.
+     */
+    CENTER,
+    /**
+     * Lines are aligned to the right of the layout box.
+     */
+    RIGHT
+  }
+  
+  private String text;
+  private Font font;
+  private float size;
+  private float maxWidth = Float.POSITIVE_INFINITY;
+  private Wrap wrap = Wrap.WORD;
+  private Alignment alignment = Alignment.LEFT;
+  
+  // positions of all characters on a single line
+  private float[] positions = new float[1];
+  private boolean measured;
+  private float ascent;
+  private float descent;
+  private float lineHeight;
+  // per line: the index of its first character, the index after its last visible character, and its width
+  private int[] lineStarts = new int[4];
+  private int[] lineEnds = new int[4];
+  private float[] lineWidths = new float[4];
+  private int lineCount;
+  private float width;
+  private boolean linesValid;
+  // the lines stay the same for any maximum width in [keepAtLeast, keepBelow)
+  private float keepAtLeast;
+  private float keepBelow;
+  // glyph runs of the lines, built by the renderer when the layout is first drawn, for its runsGeneration
+  GlyphRunCache.GlyphRun[] runs;
+  int runsGeneration;
+  
+  /**
+   * Creates a layout of a text with the specified font and font size, with an infinite maximum width, word wrapping, and left alignment.
+   *
+   * @param text The text to lay out, must be non-null, it is copied.
+   * @param font The font of the text, must be non-null.
+   * @param size The font size of the text, in pt.
+   */
+  public TextLayout(CharSequence text, Font font, float size) {
+    this.text = Objects.requireNonNull(text).toString();
+    this.font = Objects.requireNonNull(font);
+    this.size = size;
+  }
+  
+  /**
+   * Sets the text to lay out.
+   *
+   * @param text The text to lay out, must be non-null, it is copied.
+   */
+  public void setText(CharSequence text) {
+    Objects.requireNonNull(text);
+    if (this.text.contentEquals(text)) {
+      return;
+    }
+    this.text = text.toString();
+    invalidate();
+  }
+  
+  /**
+   * Sets the font and font size of the text.
+   *
+   * @param font The font of the text, must be non-null.
+   * @param size The font size of the text, in pt.
+   */
+  public void setFont(Font font, float size) {
+    Objects.requireNonNull(font);
+    if (this.font == font && this.size == size) {
+      return;
+    }
+    this.font = font;
+    this.size = size;
+    invalidate();
+  }
+  
+  /**
+   * Sets the maximum width of the lines, in pixels, which is also the width of the layout box used for alignment.
+   * <p>
+   * By default the maximum width is {@link Float#POSITIVE_INFINITY}, so that lines are only broken at line feeds.
+   *
+   * @param maxWidth The maximum width of the lines, in pixels, must be positive, may be {@link Float#POSITIVE_INFINITY}.
+   */
+  public void setMaxWidth(float maxWidth) {
+    if (!(maxWidth >= 0)) {
+      throw new IllegalArgumentException("The maximum width must be positive: " + maxWidth);
+    }
+    this.maxWidth = maxWidth;
+  }
+  
+  /**
+   * Sets where lines that exceed the maximum width are broken, by default {@link Wrap#WORD}.
+   *
+   * @param wrap The wrap mode, must be non-null.
+   */
+  public void setWrap(Wrap wrap) {
+    Objects.requireNonNull(wrap);
+    if (this.wrap != wrap) {
+      this.wrap = wrap;
+      linesValid = false;
+    }
+  }
+  
+  /**
+   * Sets how lines are aligned horizontally in the layout box, by default {@link Alignment#LEFT}.
+   *
+   * @param alignment The alignment of the lines, must be non-null.
+   */
+  public void setAlignment(Alignment alignment) {
+    this.alignment = Objects.requireNonNull(alignment);
+  }
+  
+  /**
+   * Returns the text of the layout.
+   *
+   * @return The text of the layout.
+   */
+  public String getText() {
+    return text;
+  }
+  
+  /**
+   * Returns the font of the text.
+   *
+   * @return The font of the text.
+   */
+  public Font getFont() {
+    return font;
+  }
+  
+  /**
+   * Returns the font size of the text.
+   *
+   * @return The font size of the text, in pt.
+   */
+  public float getSize() {
+    return size;
+  }
+  
+  /**
+   * Returns the maximum width of the lines.
+   *
+   * @return The maximum width of the lines, in pixels, possibly {@link Float#POSITIVE_INFINITY}.
+   */
+  public float getMaxWidth() {
+    return maxWidth;
+  }
+  
+  /**
+   * Returns where lines that exceed the maximum width are broken.
+   *
+   * @return The wrap mode.
+   */
+  public Wrap getWrap() {
+    return wrap;
+  }
+  
+  /**
+   * Returns how lines are aligned horizontally in the layout box.
+   *
+   * @return The alignment of the lines.
+   */
+  public Alignment getAlignment() {
+    return alignment;
+  }
+  
+  /**
+   * Returns the number of lines of the layout, which is at least 1: an empty text is an empty line.
+   *
+   * @return The number of lines.
+   */
+  public int getLineCount() {
+    layout();
+    return lineCount;
+  }
+  
+  /**
+   * Returns the index in the text of the first character of a line.
+   *
+   * @param line The index of the line, between 0 and {@link #getLineCount()} - 1.
+   * @return The index of the first character of the line.
+   */
+  public int getLineStart(int line) {
+    checkLine(line);
+    return lineStarts[line];
+  }
+  
+  /**
+   * Returns the index in the text after the last visible character of a line, which excludes the line feed and whitespace the line was broken at.
+   *
+   * @param line The index of the line, between 0 and {@link #getLineCount()} - 1.
+   * @return The index after the last visible character of the line.
+   */
+  public int getLineEnd(int line) {
+    checkLine(line);
+    return lineEnds[line];
+  }
+  
+  /**
+   * Returns the width of the visible characters of a line, in pixels.
+   *
+   * @param line The index of the line, between 0 and {@link #getLineCount()} - 1.
+   * @return The width of the line, in pixels.
+   */
+  public float getLineWidth(int line) {
+    checkLine(line);
+    return lineWidths[line];
+  }
+  
+  /**
+   * Returns the x position of the start of a line, relative to the left of the layout box, depending on the alignment.
+   *
+   * @param line The index of the line, between 0 and {@link #getLineCount()} - 1.
+   * @return The x position of the line, in pixels.
+   */
+  public float getLineX(int line) {
+    checkLine(line);
+    switch (alignment) {
+      case CENTER:
+        return (getBoxWidth() - lineWidths[line]) / 2;
+      case RIGHT:
+        return getBoxWidth() - lineWidths[line];
+      default:
+        return 0;
+    }
+  }
+  
+  /**
+   * Returns the y position of the baseline of a line, relative to the top of the layout box, which is negative.
+   *
+   * @param line The index of the line, between 0 and {@link #getLineCount()} - 1.
+   * @return The y position of the baseline of the line, in pixels.
+   */
+  public float getLineBaseline(int line) {
+    checkLine(line);
+    return -ascent - line * lineHeight;
+  }
+  
+  /**
+   * Returns the line height of the layout, that is the y offset between the baselines of two consecutive lines, as returned by {@link FontMetrics#getLineHeight()}.
+   *
+   * @return The line height, in pixels.
+   */
+  public float getLineHeight() {
+    layout();
+    return lineHeight;
+  }
+  
+  /**
+   * Returns the width of the longest line, in pixels.
+   *
+   * @return The width of the longest line, in pixels.
+   */
+  public float getWidth() {
+    layout();
+    return width;
+  }
+  
+  /**
+   * Returns the height of the lines, from the ascent of the first line to the descent of the last one, in pixels.
+   *
+   * @return The height of the lines, in pixels.
+   */
+  public float getHeight() {
+    layout();
+    return ascent - descent + (lineCount - 1) * lineHeight;
+  }
+  
+  /**
+   * Returns the index of the line that contains a character of the text; the line feed and whitespace a line was broken at belong to that line.
+   *
+   * @param index The index of the character in the text, between 0 and {@code getText().length()}.
+   * @return The index of the line of the character.
+   */
+  public int getLine(int index) {
+    layout();
+    if (index < 0 || index > text.length()) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + text.length());
+    }
+    int line = Arrays.binarySearch(lineStarts, 0, lineCount, index);
+    // a line that starts after the searched index can be returned when lines are empty
+    return line >= 0 ? line : -line - 2;
+  }
+  
+  /**
+   * Returns the x position of a character of the text, relative to the left of the layout box, that is the position of the caret before this character.
+   *
+   * @param index The index of the character in the text, between 0 and {@code getText().length()}.
+   * @return The x position of the character, in pixels.
+   */
+  public float getCharacterX(int index) {
+    int line = getLine(index);
+    return getLineX(line) + positions[index] - positions[lineStarts[line]];
+  }
+  
+  float getBoxWidth() {
+    return maxWidth == Float.POSITIVE_INFINITY ? width : maxWidth;
+  }
+  
+  private void checkLine(int line) {
+    layout();
+    if (line < 0 || line >= lineCount) {
+      throw new IndexOutOfBoundsException("Line: " + line + ", Line count: " + lineCount);
+    }
+  }
+  
+  private void invalidate() {
+    measured = false;
+    linesValid = false;
+  }
+  
+  private void layout() {
+    if (!measured) {
+      FontFace face = FontFace.get(font);
+      if (positions.length < text.length() + 1) {
+        positions = new float[text.length() + 1];
+      }
+      FontMetrics.layout(text, face, size, positions, null);
+      float scale = face.getScale(size);
+      ascent = face.ascent * scale;
+      descent = face.descent * scale;
+      lineHeight = (face.ascent - face.descent + face.lineGap) * scale;
+      measured = true;
+    }
+    if (linesValid && (wrap == Wrap.NONE || maxWidth >= keepAtLeast && maxWidth < keepBelow)) {
+      return;
+    }
+    breakLines();
+    linesValid = true;
+    runs = null;
+  }
+  
+  private void breakLines() {
+    lineCount = 0;
+    width = 0;
+    keepAtLeast = 0;
+    keepBelow = Float.POSITIVE_INFINITY;
+    int start = 0;
+    while (true) {
+      int hardEnd = text.indexOf('\n', start);
+      if (hardEnd == -1) {
+        hardEnd = text.length();
+      }
+      int lineStart = start;
+      while (true) {
+        int next = breakLine(lineStart, hardEnd);
+        if (next >= hardEnd) {
+          break;
+        }
+        lineStart = next;
+      }
+      if (hardEnd == text.length()) {
+        break;
+      }
+      start = hardEnd + 1;
+    }
+  }
+  
+  /**
+   * Adds the longest line starting at a character that fits in the maximum width and ends before a hard end, returns the start of the next line.
+   */
+  private int breakLine(int start, int hardEnd) {
+    int end = trim(start, hardEnd);
+    float lineWidth = getWidth(start, end);
+    if (wrap == Wrap.NONE || lineWidth <= maxWidth) {
+      keepAtLeast = Math.max(keepAtLeast, lineWidth);
+      addLine(start, end, lineWidth);
+      return hardEnd;
+    }
+    // the whole line would fit in a larger maximum width
+    keepBelow = Math.min(keepBelow, lineWidth);
+    // the longest fitting prefix ending at a break opportunity, the widths only grow so the first one that doesn't fit stops the search
+    int next = -1;
+    if (wrap == Wrap.WORD) {
+      for (int i = start + 1; i < hardEnd; i++) {
+        if (isWhitespace(text.charAt(i - 1)) && !isWhitespace(text.charAt(i))) {
+          int candidateEnd = trim(start, i);
+          float candidateWidth = getWidth(start, candidateEnd);
+          if (candidateWidth > maxWidth) {
+            keepBelow = Math.min(keepBelow, candidateWidth);
+            break;
+          }
+          next = i;
+          end = candidateEnd;
+          lineWidth = candidateWidth;
+        }
+      }
+      if (next == -1) {
+        // the first word doesn't fit, it is broken between characters
+        keepBelow = Math.min(keepBelow, getWidth(start, trim(start, wordEnd(start, hardEnd))));
+      }
+    }
+    if (next == -1) {
+      next = start + Character.charCount(text.codePointAt(start));
+      end = next;
+      lineWidth = getWidth(start, end);
+      for (int i = next; i < hardEnd; i += Character.charCount(text.codePointAt(i))) {
+        int candidate = i + Character.charCount(text.codePointAt(i));
+        float candidateWidth = getWidth(start, trim(start, candidate));
+        if (candidateWidth > maxWidth) {
+          keepBelow = Math.min(keepBelow, candidateWidth);
+          break;
+        }
+        next = candidate;
+        end = trim(start, candidate);
+        lineWidth = candidateWidth;
+      }
+      // the next line doesn't start with the whitespace the line was broken at
+      while (next < hardEnd && isWhitespace(text.charAt(next))) {
+        next++;
+      }
+    }
+    // a first character wider than the maximum width is placed anyway, at any smaller maximum width too
+    keepAtLeast = Math.max(keepAtLeast, Math.min(lineWidth, maxWidth));
+    addLine(start, end, lineWidth);
+    return next;
+  }
+  
+  private void addLine(int start, int end, float lineWidth) {
+    if (lineCount == lineStarts.length) {
+      lineStarts = Arrays.copyOf(lineStarts, lineCount * 2);
+      lineEnds = Arrays.copyOf(lineEnds, lineCount * 2);
+      lineWidths = Arrays.copyOf(lineWidths, lineCount * 2);
+    }
+    lineStarts[lineCount] = start;
+    lineEnds[lineCount] = end;
+    lineWidths[lineCount] = lineWidth;
+    lineCount++;
+    width = Math.max(width, lineWidth);
+  }
+  
+  // the end of the characters before an index, without trailing whitespace
+  private int trim(int start, int end) {
+    while (end > start && isWhitespace(text.charAt(end - 1))) {
+      end--;
+    }
+    return end;
+  }
+  
+  private int wordEnd(int start, int hardEnd) {
+    int end = start;
+    while (end < hardEnd && !isWhitespace(text.charAt(end))) {
+      end++;
+    }
+    return end;
+  }
+  
+  private float getWidth(int start, int end) {
+    return positions[end] - positions[start];
+  }
+  
+  private static boolean isWhitespace(char c) {
+    return c != '\n' && Character.isWhitespace(c);
+  }
+}
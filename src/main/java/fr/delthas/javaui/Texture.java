@@ -13,6 +13,7 @@ package fr.delthas.javaui;
  * @see Image#upload()
  * @see Atlas
  * @see Atlas#uploadImage(Image)
+ * @see PackedAtlas
  * @see Drawer
  */
 public interface Texture {
@@ -34,4 +35,15 @@ public interface Texture {
    * @return The height of the {@link Image} that this {@link Texture} has been uploaded from, in pixels.
    */
   int getHeight();
+  
+  /**
+   * Returns whether the texture can be drawn, that is whether its image data is on the GPU.
+   * <p>
+   * Textures uploaded with {@link Image#upload()} or {@link Atlas#uploadImage(Image)} are always ready. Textures uploaded asynchronously with {@link Image#uploadAsync()} or {@link Atlas#uploadImageAsync(Image)} become ready once the GPU has received their image data, which this method checks without waiting. Drawing a texture that isn't ready draws nothing, and the screen is redrawn when it becomes ready.
+   *
+   * @return Whether the texture is ready to be drawn, false if it is still being uploaded, or if it is destroyed.
+   */
+  default boolean isReady() {
+    return true;
+  }
 }
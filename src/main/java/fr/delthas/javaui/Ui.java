@@ -1,5 +1,7 @@
 package fr.delthas.javaui;
 
+import java.nio.FloatBuffer;
+import java.nio.file.Path;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
@@ -159,6 +161,8 @@ public final class Ui implements InputState, Key, Mouse {
    * Renders the layer stack, by rendering all layers from the uppermost opaque layer in the layer stack to the uppermost layer in the stack, which in turn will call their components {@link Component#render(InputState, Drawer)} method, then waits for the V-SYNC.
    * <p>
    * This method is blocking for all the duration of the rendering and all the rendering will happen in the thread that called this method, and is also blocking until the V-SYNC, that is until the rendering result is sent to the screen.
+   * <p>
+   * If damage tracking is enabled (see {@link #setDamageTracking(boolean)}), only the parts of the screen that changed are redrawn, and if nothing changed, this method only waits for the next screen refresh.
    *
    * @throws IllegalStateException If the UI system is not created.
    */
@@ -166,8 +170,12 @@ public final class Ui implements InputState, Key, Mouse {
     if (!instance.created) {
       throw new IllegalStateException("The UI system isn't created!");
     }
-    stack.render(this, window);
-    window.flip();
+    if (window.beginFrame()) {
+      stack.render(this, window);
+      window.flip();
+    } else {
+      window.skipFrame();
+    }
   }
   
   /**
@@ -179,6 +187,7 @@ public final class Ui implements InputState, Key, Mouse {
    */
   public void push(Layer layer) {
     stack.push(layer);
+    window.damageAll();
   }
   
   /**
@@ -189,6 +198,7 @@ public final class Ui implements InputState, Key, Mouse {
    * @see #top()
    */
   public Layer pop() {
+    window.damageAll();
     return stack.pop();
   }
   
@@ -238,34 +248,63 @@ public final class Ui implements InputState, Key, Mouse {
    * The line height is the number of vertical pixels that should be put two lines of text for this font and font size. For example, to draw two lines of text, first draw a line of text at {@code y}, then draw a second line at {@code y - getLineHeight(font, size)}.
    * <p>
    * This method is equivalent to the following: {@code getFontMetrics(font, size).getLineHeight();}.
+   * <p>
+   * This method doesn't need the UI system to be created, and can be called from any thread, see {@link FontMetrics}.
    *
    * @param font The font for which to get the line height, must be non-null.
    * @param size The font size for which to get the line height, in pt.
    * @return The line height, in pixels, that is the y offset between two line of text.
-   * @throws IllegalStateException If the UI system is not created.
    */
   public float getLineHeight(Font font, float size) {
-    if (!instance.created) {
-      throw new IllegalStateException("The UI system isn't created!");
-    }
-    return window.getLineHeight(font, size);
+    return FontMetrics.get(font, size).getLineHeight();
   }
   
   /**
    * Returns the font metrics for a specified font and font size (ascent, descent, line gap, line height).
    * <p>
    * For a detailed description of the metrics, see the {@link FontMetrics} class and functions Javadoc.
+   * <p>
+   * This method doesn't need the UI system to be created, and can be called from any thread, see {@link FontMetrics}.
    *
    * @param font The font for which to get the metrics, must be non-null.
    * @param size The font size for which to get the metrics, in pt.
    * @return The font metrics for the specified font and font size.
-   * @throws IllegalStateException If the UI system is not created.
    */
   public FontMetrics getFontMetrics(Font font, float size) {
+    return FontMetrics.get(font, size);
+  }
+  
+  /**
+   * Writes the font metrics for a specified font and font size to the specified array, without allocating: the ascent, the descent and the line gap, in that order.
+   * <p>
+   * Only as many metrics as fit in the array are written.
+   * <p>
+   * This method doesn't need the UI system to be created, and can be called from any thread, see {@link FontMetrics}.
+   *
+   * @param font    The font for which to get the metrics, must be non-null.
+   * @param size    The font size for which to get the metrics, in pt.
+   * @param metrics The array to write the metrics to, must be non-null.
+   */
+  public void getFontMetrics(Font font, float size, float[] metrics) {
+    FontMetrics.get(font, size, metrics);
+  }
+  
+  /**
+   * Starts rasterizing the common characters of a font at the specified font sizes in the background, so that text drawn later with this font and these sizes doesn't miss glyphs.
+   * <p>
+   * Glyphs are rasterized on background threads the first time they are drawn, so that drawing text with new characters or a new font size never stalls a frame; until they are ready, they are drawn scaled from the same characters at the nearest font size, or not drawn. This method can be called while showing a loading screen, to have the glyphs of the following screens ready when they are first drawn. The characters of the Basic Latin, Latin-1 Supplement and Latin Extended blocks are rasterized.
+   * <p>
+   * The rasterized glyphs are kept in the glyph cache, so prewarming more glyphs than fit in it (see {@link #setGlyphCacheSize(long)}) evicts the least recently drawn ones. With distance field text (see {@link #setDistanceFieldText(boolean)}), the sizes are ignored since glyphs are shared by all sizes.
+   *
+   * @param font  The font to prewarm, must be non-null.
+   * @param sizes The font sizes to prewarm, in pt, must be non-null.
+   * @throws IllegalStateException If the UI system is not created.
+   */
+  public void prewarmFont(Font font, float... sizes) {
     if (!instance.created) {
       throw new IllegalStateException("The UI system isn't created!");
     }
-    return window.getFontMetrics(font, size);
+    window.prewarmFont(font, sizes);
   }
   
   /**
@@ -286,18 +325,16 @@ public final class Ui implements InputState, Key, Mouse {
   
   /**
    * Returns the width, in pixels, of the specified text, if it were to be drawn with the specified font and font size, that is the "x" length from the start position of the first character of the text, to the start position for the (hypothetical) next character after the last character of the text.
+   * <p>
+   * This method doesn't need the UI system to be created, and can be called from any thread, see {@link FontMetrics}.
    *
    * @param text The text to get the width of, must be non-null (the width of the empty string is always 0).
    * @param font The font for which to get the width of the text, must be non-null.
    * @param size The font size for which to get the width of the text, in pt.
    * @return The width of the specified text, in the specified font and font size, in pixels.
-   * @throws IllegalStateException If the UI system is not created.
    */
   public float getTextWidth(String text, Font font, float size) {
-    if (!instance.created) {
-      throw new IllegalStateException("The UI system isn't created!");
-    }
-    return window.getTextWidth(text, font, size);
+    return FontMetrics.getTextWidth(text, font, size);
   }
   
   /**
@@ -307,18 +344,70 @@ public final class Ui implements InputState, Key, Mouse {
    * <code> for(int i=0; i{@literal <}=text.length(); i++) result[i] = getTextWidth(text.substring(0, i), font, size); </code>
    * <p>
    * As such, the i-th element will contain the start position of the i-th character of the string, so the first element will always be 0; and the array is of size {@code text.length() + 1}, the last element being the hypothetical start position of a next character to be placed after the last character of the string, in other words the total width of the text, as returned by {@link #getTextWidth(String, Font, float)}.
+   * <p>
+   * This method doesn't need the UI system to be created, and can be called from any thread, see {@link FontMetrics}.
    *
    * @param text The text whose characters to get the positions of, must be non-null (an empty string returns the empty array).
    * @param font The font for which to get the positions of the characters in the text, must be non-null.
    * @param size The font size for which to get the positions of the characters in the text, must be non-null.
    * @return The positions of all characters in the text, for the specified font and font size, followed by the total width of the text, in pixels, as an array of {@code text.length() + 1} numbers.
-   * @throws IllegalStateException If the UI system is not created.
    */
   public float[] getTextPositions(String text, Font font, float size) {
-    if (!instance.created) {
-      throw new IllegalStateException("The UI system isn't created!");
-    }
-    return window.getTextPositions(text, font, size);
+    float[] positions = new float[text.length() + 1];
+    FontMetrics.getTextPositions(text, font, size, positions);
+    return positions;
+  }
+  
+  /**
+   * Returns the width, in pixels, of the specified text, if it were to be drawn with the specified font and font size.
+   * <p>
+   * This is the same as {@link #getTextWidth(String, Font, float)}, except that any character sequence can be measured, without allocating.
+   * <p>
+   * This method doesn't need the UI system to be created, and can be called from any thread, see {@link FontMetrics}.
+   *
+   * @param text The text to get the width of, must be non-null.
+   * @param font The font for which to get the width of the text, must be non-null.
+   * @param size The font size for which to get the width of the text, in pt.
+   * @return The width of the specified text, in the specified font and font size, in pixels.
+   */
+  public float getTextWidth(CharSequence text, Font font, float size) {
+    return FontMetrics.getTextWidth(text, font, size);
+  }
+  
+  /**
+   * Writes the positions of all characters in the text, would they be drawn with the specified font and font size, followed by the total width of the text, to the specified array, and returns the total width of the text.
+   * <p>
+   * This is the same as {@link #getTextPositions(String, Font, float)}, except that any character sequence can be measured and that the positions are written to a caller-supplied array, which can be reused between calls to avoid allocating.
+   * <p>
+   * This method doesn't need the UI system to be created, and can be called from any thread, see {@link FontMetrics}.
+   *
+   * @param text      The text whose characters to get the positions of, must be non-null.
+   * @param font      The font for which to get the positions of the characters in the text, must be non-null.
+   * @param size      The font size for which to get the positions of the characters in the text.
+   * @param positions The array to write the {@code text.length() + 1} positions to, starting at index 0, must be non-null and of length at least {@code text.length() + 1}.
+   * @return The total width of the text, in pixels.
+   * @throws IllegalArgumentException If the array is too small.
+   */
+  public float getTextPositions(CharSequence text, Font font, float size, float[] positions) {
+    return FontMetrics.getTextPositions(text, font, size, positions);
+  }
+  
+  /**
+   * Writes the positions of all characters in the text, would they be drawn with the specified font and font size, followed by the total width of the text, to the specified buffer, and returns the total width of the text.
+   * <p>
+   * The positions are written with absolute puts starting at the current position of the buffer, which is left unchanged.
+   * <p>
+   * This method doesn't need the UI system to be created, and can be called from any thread, see {@link FontMetrics}.
+   *
+   * @param text      The text whose characters to get the positions of, must be non-null.
+   * @param font      The font for which to get the positions of the characters in the text, must be non-null.
+   * @param size      The font size for which to get the positions of the characters in the text.
+   * @param positions The buffer to write the {@code text.length() + 1} positions to, must be non-null and have at least {@code text.length() + 1} floats remaining.
+   * @return The total width of the text, in pixels.
+   * @throws IllegalArgumentException If the buffer is too small.
+   */
+  public float getTextPositions(CharSequence text, Font font, float size, FloatBuffer positions) {
+    return FontMetrics.getTextPositions(text, font, size, positions);
   }
   
   /**
@@ -402,6 +491,142 @@ public final class Ui implements InputState, Key, Mouse {
     return mouseState.contains(button);
   }
   
+  /**
+   * Returns statistics about the GL work done to render the last frame, that is during the last call to {@link #render()}.
+   * <p>
+   * For a description of the statistics, see the {@link RenderStats} class and functions Javadoc.
+   *
+   * @return The rendering statistics of the last rendered frame.
+   * @throws IllegalStateException If the UI system is not created.
+   */
+  public RenderStats getRenderStats() {
+    if (!instance.created) {
+      throw new IllegalStateException("The UI system isn't created!");
+    }
+    return window.getRenderStats();
+  }
+  
+  /**
+   * Sets whether the UI system should only redraw the parts of the screen that changed since the last frame (true), or redraw the whole screen every frame (false).
+   * <p>
+   * With damage tracking, components notify the UI system when their rendering changes with {@link Component#markDirty()}, and {@link #render()} only redraws the bounding box of the rectangles of the dirty components, so two small dirty components far apart redraw everything between them. If no component is dirty, {@link #render()} doesn't draw anything and only waits for the next screen refresh, so that a static UI uses almost no CPU or GPU time. Pushing or popping a layer redraws the whole screen.
+   * <p>
+   * <b>When damage tracking is enabled, custom components MUST call {@link Component#markDirty()} whenever their rendering changes, otherwise the screen would not be updated.</b> All built-in components already do so.
+   * <p>
+   * This method can be called whether or not the UI system is created, and the setting is kept across UI system creation and destruction. By default, damage tracking is disabled.
+   *
+   * @param damageTracking Whether to only redraw the parts of the screen that changed.
+   */
+  public void setDamageTracking(boolean damageTracking) {
+    window.setDamageTracking(damageTracking);
+  }
+  
+  /**
+   * Sets whether draws may be reordered to reduce the number of GPU state changes (true), or should be sent to the GPU in the exact order they were issued (false).
+   * <p>
+   * When enabled, draws are queued instead of being sent to the GPU immediately, then grouped by the shader program and texture they use, so that for example the rectangles and texts of a list of buttons are sent in a few draw calls instead of one per primitive. A draw is only moved before draws whose bounds it doesn't overlap, so the rendered result is identical to drawing in order.
+   * <p>
+   * This method can be called whether or not the UI system is created, and the setting is kept across UI system creation and destruction. By default, draws are not reordered.
+   *
+   * @param reordering Whether to reorder draws that don't overlap to reduce GPU state changes.
+   */
+  public void setDrawReordering(boolean reordering) {
+    window.setSorting(reordering);
+  }
+  
+  /**
+   * Sets whether all primitives (rectangles, lines, circles, rings, images and text) should be drawn with a single unified shader program (true), or with one program per primitive type (false).
+   * <p>
+   * With the unified program, consecutive draws of different primitive types can be sent to the GPU together, which reduces the number of draw calls for UIs that mix primitives, such as the built-in components (rectangles then text). Draws are still flushed when the image or font texture changes. With separate programs, shapes are sent to the GPU more compactly. Both modes render the same result.
+   * <p>
+   * This method can be called whether or not the UI system is created, and the setting is kept across UI system creation and destruction. By default, separate programs are used.
+   *
+   * @param unified Whether to draw all primitives with a single unified shader program.
+   */
+  public void setUnifiedShader(boolean unified) {
+    window.setUnified(unified);
+  }
+  
+  /**
+   * Sets the maximum amount of memory, in bytes, used to cache laid out text.
+   * <p>
+   * Drawing or measuring a text lays it out for its font and font size; the result is cached so that drawing the same text again (for example the text of a {@link Label} each frame) doesn't need to lay it out again. The least recently used texts are evicted from the cache when it exceeds this size. A size of 0 disables the cache.
+   * <p>
+   * This method can be called whether or not the UI system is created, and the setting is kept across UI system creation and destruction. The default size is 4 MiB.
+   *
+   * @param size The maximum size of the text layout cache, in bytes, must be non-negative.
+   * @throws IllegalArgumentException If the size is negative.
+   */
+  public void setTextCacheSize(long size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("The text cache size must be non-negative: " + size);
+    }
+    window.setGlyphRunCacheSize(size);
+  }
+  
+  /**
+   * Sets the maximum amount of GPU memory, in bytes, used to cache the bitmaps of the glyphs of text.
+   * <p>
+   * Glyphs are rasterized the first time they are drawn, for any character and font size, and cached in a few textures shared by all fonts and sizes. When the cache is full, the least recently drawn glyphs are evicted to make room, and rasterized again if they are drawn again; the glyphs drawn in the current frame are never evicted, so a frame that draws more glyphs than fit in this size uses more memory. Larger sizes avoid rasterizing glyphs again when many different characters or font sizes are used.
+   * <p>
+   * This method can be called whether or not the UI system is created, and the setting is kept across UI system creation and destruction. The default size is 4 MiB.
+   *
+   * @param size The maximum size of the glyph cache, in bytes, must be non-negative.
+   * @throws IllegalArgumentException If the size is negative.
+   */
+  public void setGlyphCacheSize(long size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("The glyph cache size must be non-negative: " + size);
+    }
+    window.setGlyphCacheSize(size);
+  }
+  
+  /**
+   * Sets whether text should be drawn with signed distance field glyphs (true), or with glyphs rasterized for each font size (false).
+   * <p>
+   * With distance field glyphs, each character of a font is rasterized once and drawn at any font size by a shader, so text of all sizes shares the same glyphs. This avoids rasterizing glyphs again when text is zoomed or animated through many font sizes, at the cost of slightly softer small text and rounder corners on large text. With per-size glyphs, small text is sharper, but every font size rasterizes its own glyphs.
+   * <p>
+   * This method can be called whether or not the UI system is created, and the setting is kept across UI system creation and destruction. By default, glyphs are rasterized for each font size.
+   *
+   * @param distanceField Whether to draw text with signed distance field glyphs.
+   * @see #setGlyphCacheSize(long)
+   */
+  public void setDistanceFieldText(boolean distanceField) {
+    window.setDistanceField(distanceField);
+  }
+  
+  /**
+   * Sets the directory of the on-disk cache of rasterized glyphs, or disables the cache if null.
+   * <p>
+   * Glyphs are rasterized the first time they are drawn, for each font and font size. When the cache is enabled, the glyphs rasterized during a run are written to the cache directory when the UI system is destroyed, grouped in one file per font and font size, and on later runs these files are mapped in memory instead of rasterizing the glyphs again. Files are identified by a hash of the font file, the font size and the rasterization settings, so glyphs are rasterized again after a font file changes.
+   * <p>
+   * The cache directory is created if needed. The cache is never cleaned up automatically: the directory may be deleted at any time when the UI system isn't created. Failures to read or write the cache are ignored, and the glyphs are rasterized as if the cache was disabled. This method should be called before the UI system is created. By default, the cache is disabled.
+   *
+   * @param directory The directory in which to cache rasterized glyphs, or null to disable the cache.
+   * @see Image#setDiskCache(Path)
+   */
+  public void setGlyphDiskCache(Path directory) {
+    GlyphCache.setDirectory(directory);
+  }
+  
+  /**
+   * Sets the maximum width and height, in pixels, of the images that {@link Image#upload()} stores in a shared {@link PackedAtlas} rather than in their own texture.
+   * <p>
+   * Each texture used by a frame may require a separate draw call, so an application that draws many small images, such as icons, is drawn faster when they are packed in the pages of an atlas. Images larger than this size are still uploaded to their own texture. A size of 0 disables image packing.
+   * <p>
+   * This method can be called whether or not the UI system is created, and the setting is kept across UI system creation and destruction. It only applies to images uploaded after it is called. By default, image packing is disabled.
+   *
+   * @param maxSize The maximum width and height of the images to store in the shared atlas, in pixels, must be non-negative and smaller than {@link PackedAtlas#DEFAULT_PAGE_SIZE}.
+   * @throws IllegalArgumentException If the size is negative, or not smaller than {@link PackedAtlas#DEFAULT_PAGE_SIZE}.
+   * @see PackedAtlas
+   */
+  public void setImagePacking(int maxSize) {
+    if (maxSize < 0 || maxSize >= PackedAtlas.DEFAULT_PAGE_SIZE) {
+      throw new IllegalArgumentException("Invalid image packing size: " + maxSize);
+    }
+    window.setPackingSize(maxSize);
+  }
+  
   Window getWindow() {
     return window;
   }
@@ -1,12 +1,12 @@
 package fr.delthas.javaui;
 
-import org.joml.Matrix4f;
-import org.lwjgl.BufferUtils;
+import fr.delthas.javaui.GlyphRunCache.GlyphRun;
 import org.lwjgl.glfw.*;
 import org.lwjgl.opengl.GL;
 import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GL30;
+import org.lwjgl.opengl.GLCapabilities;
 import org.lwjgl.opengl.GLDebugMessageCallback;
-import org.lwjgl.stb.*;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.system.MemoryUtil;
 
@@ -26,33 +26,83 @@ import static org.lwjgl.glfw.GLFW.*;
 import static org.lwjgl.opengl.GL11.*;
 import static org.lwjgl.opengl.GL12.GL_TEXTURE_BASE_LEVEL;
 import static org.lwjgl.opengl.GL12.GL_TEXTURE_MAX_LEVEL;
+import static org.lwjgl.opengl.GL12.glTexImage3D;
+import static org.lwjgl.opengl.GL12.glTexSubImage3D;
+import static org.lwjgl.opengl.GL14.glBlendFuncSeparate;
 import static org.lwjgl.opengl.GL15.*;
 import static org.lwjgl.opengl.GL20.*;
 import static org.lwjgl.opengl.GL30.*;
+import static org.lwjgl.opengl.GL21.GL_PIXEL_UNPACK_BUFFER;
+import static org.lwjgl.opengl.GL31.glDrawArraysInstanced;
+import static org.lwjgl.opengl.GL32.*;
+import static org.lwjgl.opengl.GL33.glVertexAttribDivisor;
+import static org.lwjgl.opengl.GL42.glDrawArraysInstancedBaseInstance;
 import static org.lwjgl.opengl.GL43.*;
-import static org.lwjgl.stb.STBImage.stbi_image_free;
-import static org.lwjgl.stb.STBImage.stbi_load_from_memory;
 import static org.lwjgl.stb.STBImageResize.stbir_resize_uint8;
-import static org.lwjgl.stb.STBTruetype.*;
 import static org.lwjgl.system.MemoryStack.stackPush;
 import static org.lwjgl.system.MemoryUtil.*;
 
 @SuppressWarnings({"resource", "unused"})
 final class Window extends Drawer {
+  private static final int BATCH_SIZE = 1 << 20;
+  private static final int BATCH_NONE = 0, BATCH_TEX = 1, BATCH_STD = 2, BATCH_CIRCLE = 3, BATCH_FONT = 4, BATCH_UBER = 5, BATCH_TEX_ARRAY = 6, BATCH_DISTANCE_FIELD = 7;
+  // in bytes: position (2), texture position (2), alpha (1), layer (1, array textures only)
+  private static final int TEX_VERTEX_SIZE = 6 * 4;
+  // in bytes: center (2), size (2), angle (1), packed RGBA color
+  private static final int STD_INSTANCE_SIZE = 5 * 4 + 4;
+  // in bytes: center (2), radius (1), squared inner radius ratio (1), packed RGBA color
+  private static final int CIRCLE_INSTANCE_SIZE = 4 * 4 + 4;
+  // in bytes: position (2), texture position (2), packed RGBA color
+  private static final int FONT_VERTEX_SIZE = 4 * 4 + 4;
+  // in bytes: position (2), texture position (2), packed RGBA color, primitive kind (1), squared inner radius ratio (1)
+  private static final int UBER_VERTEX_SIZE = 4 * 4 + 4 + 2 * 4;
+  // primitive kinds of the unified program, must match uber.frag
+  private static final int UBER_SOLID = 0, UBER_CIRCLE = 1, UBER_IMAGE = 2, UBER_GLYPH = 3, UBER_IMAGE_ARRAY = 4, UBER_GLYPH_DISTANCE = 5;
   private static int width, height;
   long time = 0;
   private boolean compatibility;
   private boolean created = false;
   private SynchronousQueue<Object> synchronousQueue = new SynchronousQueue<>();
   private long window;
-  private int vao, circleVao, texVao, fontVao, program, circleProgram, texProgram, fontProgram;
+  private int vao, circleVao, texVao, fontVao, uberVao, program, circleProgram, texProgram, texArrayProgram, fontProgram, distanceFieldProgram, uberProgram;
   private int bufferRectangle;
-  private int indexCircleCircle, indexCircleColor, indexCircleMinLength;
-  private int indexFontFontPosition, indexFontImagePosition, indexFontColor;
-  private int indexStdMatrix, indexStdColor;
-  private int indexTexScreenPosition, indexTexTexPosition, indexTexAlpha;
-  private FloatBuffer bufferMat4x4;
-  private Matrix4f mat4x4;
+  private StreamBuffer stream;
+  private ByteBuffer batch;
+  private int batchKind = BATCH_NONE;
+  private int batchTexture;
+  // when using the unified program, a batch can mix an image texture, an array texture and a glyph texture
+  private int batchArrayTexture;
+  private int batchFontTexture;
+  private int maxArrayTextureLayers;
+  private boolean unified;
+  private GlState gl = new GlState();
+  private int drawCalls;
+  private RenderStats renderStats = new RenderStats(0, 0, 0, 0);
+  // incremented on each window creation, invalidates the draw lists recorded with previous windows
+  private int generation;
+  // incremented when the glyph runs kept by text layouts become invalid
+  private int textGeneration;
+  private DrawList recording;
+  private boolean damageTracking;
+  private boolean sorting;
+  private boolean draining;
+  private DrawSorter sorter = new DrawSorter();
+  // stack of the clips below the current one: min x, min y, max x, max y, in pixels
+  private int[] clipStack = new int[4 * 8];
+  private int clipDepth;
+  // current clip, in pixels, the whole screen if no clip was pushed
+  private int clipMinX, clipMinY, clipMaxX, clipMaxY;
+  // region redrawn by the current frame when using damage tracking
+  private int frameMinX, frameMinY, frameMaxX, frameMaxY;
+  private boolean renderingCache;
+  private int cacheFramebuffer;
+  private int culled;
+  // rectangle of the screen to redraw on the next frame, in pixels, empty if damageMinX >= damageMaxX
+  private int damageMinX, damageMinY, damageMaxX, damageMaxY;
+  // with damage tracking, frames are rendered into this framebuffer so that its content is kept between frames
+  private int sceneFramebuffer, sceneTexture;
+  private int refreshRate;
+  private Set<LayerCache> layerCaches = new HashSet<>();
   private ArrayDeque<Double> translateStack = new ArrayDeque<>();
   private double translateX, translateY;
   @SuppressWarnings("FieldCanBeLocal")
@@ -65,19 +115,25 @@ final class Window extends Drawer {
   private GLFWMouseButtonCallback mouseButtonCallback;
   @SuppressWarnings("FieldCanBeLocal")
   private GLFWScrollCallback scrollCallback;
-  private Map<FontKey, FontData> fontData = new HashMap<>();
-  private Map<Font, ByteBuffer> fontBuffer = new HashMap<>();
+  private GlyphAtlas glyphAtlas;
+  private long glyphCacheSize = GlyphAtlas.DEFAULT_CAPACITY;
+  // whether text is laid out with distance field glyphs, shared by all font sizes
+  private boolean distanceField;
+  private GlyphRunCache glyphRuns = new GlyphRunCache();
   private Set<Integer> texturesIndexes = new HashSet<>();
+  private Set<Integer> pageFramebuffers = new HashSet<>();
+  // uploads whose transfer from their pixel buffer may not be complete yet
+  private List<PendingUpload> pendingUploads = new ArrayList<>();
+  // atlas that Image.upload() stores images of at most packingSize pixels in, 0 disabling it
+  private PackedAtlas sharedAtlas;
+  private int packingSize;
   private List<Object> inputs = new ArrayList<>();
-  private FontKey lastFontKey;
-  private FontData lastFontData;
-  private int mainStdColor;
-  private int mainCircleColor;
-  private int mainFontColor;
-  private int currentStdColor;
-  private int currentCircleColor;
-  private int currentFontColor;
-  private double currentTexAlpha = -1;
+  // opaque black until the first setColor, since vertex colors honor alpha
+  private int mainStdColor = 0xFF000000;
+  private int mainCircleColor = 0xFF000000;
+  private int mainFontColor = 0xFF000000;
+  // bounds of the glyphs of the last text laid out by layoutBounds, relative to its origin
+  private float layoutMinX, layoutMinY, layoutMaxX, layoutMaxY;
   // fix macOS main thread==first thread undocumented OpenGL limitation
   private boolean glfwForceMainThread = System.getProperty("os.name").startsWith("Mac");
   
@@ -98,6 +154,33 @@ final class Window extends Drawer {
     }
   }
   
+  private static int createShader(int type, String name) {
+    int shader = glCreateShader(type);
+    glShaderSource(shader, readFile(name));
+    glCompileShader(shader);
+    if (glGetShaderi(shader, GL_COMPILE_STATUS) != GL_TRUE) {
+      throw new RuntimeException(glGetShaderInfoLog(shader));
+    }
+    return shader;
+  }
+  
+  private static int createProgram(String vertName, String fragName) {
+    int vertShader = createShader(GL_VERTEX_SHADER, vertName);
+    int fragShader = createShader(GL_FRAGMENT_SHADER, fragName);
+    int program = glCreateProgram();
+    glAttachShader(program, vertShader);
+    glAttachShader(program, fragShader);
+    glLinkProgram(program);
+    if (glGetProgrami(program, GL_LINK_STATUS) != GL_TRUE) {
+      throw new RuntimeException(glGetProgramInfoLog(program));
+    }
+    glDetachShader(program, vertShader);
+    glDetachShader(program, fragShader);
+    glDeleteShader(vertShader);
+    glDeleteShader(fragShader);
+    return program;
+  }
+  
   static int getHeight() {
     return height;
   }
@@ -127,11 +210,12 @@ final class Window extends Drawer {
     glfwWindowHint(GLFW_GREEN_BITS, vidmode.greenBits());
     glfwWindowHint(GLFW_BLUE_BITS, vidmode.blueBits());
     glfwWindowHint(GLFW_REFRESH_RATE, vidmode.refreshRate());
+    refreshRate = vidmode.refreshRate();
     width = vidmode.width();
     height = vidmode.height();
-    
-    glfwWindowHint(GLFW_DECORATED, GL_FALSE);
   
+    glfwWindowHint(GLFW_DECORATED, GL_FALSE);
+    
     Drawer.DRAWER = this;
   }
   
@@ -179,17 +263,6 @@ final class Window extends Drawer {
     }
   }
   
-  Image createImage(ByteBuffer buffer, boolean ignoreAlpha) {
-    int[] x = new int[1];
-    int[] y = new int[1];
-    ByteBuffer result = stbi_load_from_memory(buffer, x, y, new int[1], ignoreAlpha ? 3 : 4);
-    return fr.delthas.javaui.Image.createImageRaw(result, x[0], y[0], ignoreAlpha, 2);
-  }
-  
-  void freeImage(Image image) {
-    stbi_image_free(image.data);
-  }
-  
   public Image resizeImage(Image image, int width, int height) {
     ByteBuffer buffer = Utils.allocate(width * height * (image.ignoreAlpha ? 3 : 4));
     stbir_resize_uint8(image.data, image.getWidth(), image.getHeight(), 0, buffer, width, height, 0, image.ignoreAlpha ? 3 : 4);
@@ -197,23 +270,44 @@ final class Window extends Drawer {
   }
   
   void destroyImage(SimpleTexture simpleTexture) {
+    flush();
+    cancelUpload(simpleTexture);
     texturesIndexes.remove(simpleTexture.texture);
     glDeleteTextures(simpleTexture.texture);
+    gl.deleteTexture(simpleTexture.texture);
   }
   
   public Atlas createAtlas(int width, int height, int n, boolean ignoreAlpha) {
     int texture = glGenTextures();
-    glBindTexture(GL_TEXTURE_2D, texture);
-    glTexImage2D(GL_TEXTURE_2D, 0, ignoreAlpha ? GL_RGB8 : GL_RGBA8, width * n, height, 0, ignoreAlpha ? GL_RGB : GL_RGBA, GL_UNSIGNED_BYTE, NULL);
-    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
-    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
+    // one layer per image, so that the atlas size isn't limited by the maximum texture width
+    boolean array = n <= maxArrayTextureLayers;
+    if (array) {
+      gl.bindTexture(0, GL_TEXTURE_2D_ARRAY, texture);
+      glTexImage3D(GL_TEXTURE_2D_ARRAY, 0, ignoreAlpha ? GL_RGB8 : GL_RGBA8, width, height, n, 0, ignoreAlpha ? GL_RGB : GL_RGBA, GL_UNSIGNED_BYTE, (ByteBuffer) null);
+      glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_BASE_LEVEL, 0);
+      glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAX_LEVEL, 0);
+    } else {
+      gl.bindTexture(0, texture);
+      glTexImage2D(GL_TEXTURE_2D, 0, ignoreAlpha ? GL_RGB8 : GL_RGBA8, width * n, height, 0, ignoreAlpha ? GL_RGB : GL_RGBA, GL_UNSIGNED_BYTE, NULL);
+      glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
+      glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
+    }
     texturesIndexes.add(texture);
-    return new Atlas(width, height, texture, n, ignoreAlpha);
+    return new Atlas(width, height, texture, n, ignoreAlpha, array);
   }
   
   public void destroyAtlas(Atlas atlas) {
+    flush();
+    for (Iterator<PendingUpload> it = pendingUploads.iterator(); it.hasNext(); ) {
+      PendingUpload upload = it.next();
+      if (upload.texture instanceof AtlasTexture && ((AtlasTexture) upload.texture).atlas == atlas) {
+        deleteUpload(upload);
+        it.remove();
+      }
+    }
     texturesIndexes.remove(atlas.texture);
     glDeleteTextures(atlas.texture);
+    gl.deleteTexture(atlas.texture);
   }
   
   public AtlasTexture uploadAtlasImage(Atlas atlas, Image image, int i) {
@@ -221,18 +315,147 @@ final class Window extends Drawer {
     {
       image.data.flip();
     }
-    glBindTexture(GL_TEXTURE_2D, atlas.texture);
-    glTexSubImage2D(GL_TEXTURE_2D, 0, atlas.width * i, 0, atlas.width, atlas.height, atlas.ignoreAlpha ? GL_RGB : GL_RGBA, GL_UNSIGNED_BYTE, image.data);
+    flush();
+    if (atlas.array) {
+      gl.bindTexture(0, GL_TEXTURE_2D_ARRAY, atlas.texture);
+      glTexSubImage3D(GL_TEXTURE_2D_ARRAY, 0, 0, 0, i, atlas.width, atlas.height, 1, atlas.ignoreAlpha ? GL_RGB : GL_RGBA, GL_UNSIGNED_BYTE, image.data);
+    } else {
+      gl.bindTexture(0, atlas.texture);
+      glTexSubImage2D(GL_TEXTURE_2D, 0, atlas.width * i, 0, atlas.width, atlas.height, atlas.ignoreAlpha ? GL_RGB : GL_RGBA, GL_UNSIGNED_BYTE, image.data);
+    }
     return new AtlasTexture(atlas, i);
   }
   
+  SimpleTexture uploadImageAsync(Image image) {
+    if (image.data.remaining() == 0) // automatically flip if clearly meant to be flipped
+    {
+      image.data.flip();
+    }
+    int pixelBuffer = stagePixels(image);
+    int texture = glGenTextures();
+    gl.bindTexture(0, texture);
+    glTexImage2D(GL_TEXTURE_2D, 0, image.ignoreAlpha ? GL_RGB8 : GL_RGBA8, image.width, image.height, 0, image.ignoreAlpha ? GL_RGB : GL_RGBA, GL_UNSIGNED_BYTE, 0L);
+    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
+    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
+    glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+    texturesIndexes.add(texture);
+    SimpleTexture simpleTexture = new SimpleTexture(image.width, image.height, texture);
+    simpleTexture.ready = false;
+    pendingUploads.add(new PendingUpload(simpleTexture, pixelBuffer, glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0)));
+    return simpleTexture;
+  }
+  
+  AtlasTexture uploadAtlasImageAsync(Atlas atlas, Image image, int i) {
+    if (image.data.remaining() == 0) // automatically flip if clearly meant to be flipped
+    {
+      image.data.flip();
+    }
+    // the other images of the atlas may be drawn by the pending batch
+    flush();
+    int pixelBuffer = stagePixels(image);
+    if (atlas.array) {
+      gl.bindTexture(0, GL_TEXTURE_2D_ARRAY, atlas.texture);
+      glTexSubImage3D(GL_TEXTURE_2D_ARRAY, 0, 0, 0, i, atlas.width, atlas.height, 1, atlas.ignoreAlpha ? GL_RGB : GL_RGBA, GL_UNSIGNED_BYTE, 0L);
+    } else {
+      gl.bindTexture(0, atlas.texture);
+      glTexSubImage2D(GL_TEXTURE_2D, 0, atlas.width * i, 0, atlas.width, atlas.height, atlas.ignoreAlpha ? GL_RGB : GL_RGBA, GL_UNSIGNED_BYTE, 0L);
+    }
+    glBindBuffer(GL_PIXEL_UNPACK_BUFFER, 0);
+    AtlasTexture atlasTexture = new AtlasTexture(atlas, i);
+    atlasTexture.ready = false;
+    pendingUploads.add(new PendingUpload(atlasTexture, pixelBuffer, glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0)));
+    return atlasTexture;
+  }
+  
+  /**
+   * Copies the pixels of an image to a new pixel buffer, left bound, so that the texture upload that follows is a transfer from GPU memory that doesn't block.
+   */
+  private int stagePixels(Image image) {
+    int pixelBuffer = glGenBuffers();
+    glBindBuffer(GL_PIXEL_UNPACK_BUFFER, pixelBuffer);
+    glBufferData(GL_PIXEL_UNPACK_BUFFER, image.data, GL_STREAM_DRAW);
+    return pixelBuffer;
+  }
+  
+  /**
+   * Marks the textures whose upload completed as ready, without waiting. Returns true if an upload completed.
+   */
+  boolean pollUploads() {
+    boolean completed = false;
+    for (Iterator<PendingUpload> it = pendingUploads.iterator(); it.hasNext(); ) {
+      PendingUpload upload = it.next();
+      if (pollUpload(upload)) {
+        it.remove();
+        completed = true;
+      }
+    }
+    if (completed) {
+      redrawUploaded();
+    }
+    return completed;
+  }
+  
+  void pollUpload(Texture texture) {
+    for (Iterator<PendingUpload> it = pendingUploads.iterator(); it.hasNext(); ) {
+      PendingUpload upload = it.next();
+      if (upload.texture == texture) {
+        if (pollUpload(upload)) {
+          it.remove();
+          redrawUploaded();
+        }
+        return;
+      }
+    }
+  }
+  
+  // the textures were skipped by the previous frames and layer caches
+  private void redrawUploaded() {
+    damageAll();
+    for (LayerCache cache : layerCaches) {
+      cache.valid = false;
+    }
+  }
+  
+  private boolean pollUpload(PendingUpload upload) {
+    int result = glClientWaitSync(upload.fence, 0, 0);
+    if (result == GL_WAIT_FAILED) {
+      throw new RuntimeException("Failed polling a texture upload!");
+    }
+    if (result == GL_TIMEOUT_EXPIRED) {
+      return false;
+    }
+    deleteUpload(upload);
+    if (upload.texture instanceof SimpleTexture) {
+      ((SimpleTexture) upload.texture).ready = true;
+    } else {
+      ((AtlasTexture) upload.texture).ready = true;
+    }
+    return true;
+  }
+  
+  void cancelUpload(Texture texture) {
+    for (Iterator<PendingUpload> it = pendingUploads.iterator(); it.hasNext(); ) {
+      PendingUpload upload = it.next();
+      if (upload.texture == texture) {
+        deleteUpload(upload);
+        it.remove();
+        return;
+      }
+    }
+  }
+  
+  private static void deleteUpload(PendingUpload upload) {
+    glDeleteSync(upload.fence);
+    glDeleteBuffers(upload.pixelBuffer);
+  }
+  
   SimpleTexture uploadImage(Image image) {
     if (image.data.remaining() == 0) // automatically flip if clearly meant to be flipped
     {
       image.data.flip();
     }
     int texture = glGenTextures();
-    glBindTexture(GL_TEXTURE_2D, texture);
+    gl.bindTexture(0, texture);
     glTexImage2D(GL_TEXTURE_2D, 0, image.ignoreAlpha ? GL_RGB8 : GL_RGBA8, image.width, image.height, 0, image.ignoreAlpha ? GL_RGB : GL_RGBA, GL_UNSIGNED_BYTE, image.data);
     glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
     glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
@@ -240,6 +463,74 @@ final class Window extends Drawer {
     return new SimpleTexture(image.width, image.height, texture);
   }
   
+  PackedAtlas createPackedAtlas(int pageSize) {
+    if (pageSize <= 0 || pageSize > glGetInteger(GL_MAX_TEXTURE_SIZE)) {
+      throw new IllegalArgumentException("Invalid atlas page size: " + pageSize);
+    }
+    return new PackedAtlas(pageSize);
+  }
+  
+  void createPage(PackedAtlas atlas, PackedAtlas.Page page) {
+    flush();
+    page.texture = glGenTextures();
+    gl.bindTexture(0, page.texture);
+    glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, atlas.pageSize, atlas.pageSize, 0, GL_RGBA, GL_UNSIGNED_BYTE, NULL);
+    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
+    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
+    texturesIndexes.add(page.texture);
+    // the framebuffer clears the page, and is used to clear and copy images
+    page.framebuffer = createFramebuffer(page.texture);
+    pageFramebuffers.add(page.framebuffer);
+  }
+  
+  void destroyPage(PackedAtlas.Page page) {
+    flush();
+    texturesIndexes.remove(page.texture);
+    pageFramebuffers.remove(page.framebuffer);
+    glDeleteFramebuffers(page.framebuffer);
+    glDeleteTextures(page.texture);
+    gl.deleteTexture(page.texture);
+    page.framebuffer = 0;
+    page.texture = 0;
+  }
+  
+  void uploadPackedImage(PackedTexture texture, Image image) {
+    if (image.data.remaining() == 0) // automatically flip if clearly meant to be flipped
+    {
+      image.data.flip();
+    }
+    flush();
+    gl.bindTexture(0, texture.page.texture);
+    glTexSubImage2D(GL_TEXTURE_2D, 0, texture.x, texture.y, image.width, image.height, image.ignoreAlpha ? GL_RGB : GL_RGBA, GL_UNSIGNED_BYTE, image.data);
+  }
+  
+  void clearPackedRegion(PackedAtlas.Page page, int x, int y, int width, int height) {
+    flush();
+    glBindFramebuffer(GL_FRAMEBUFFER, page.framebuffer);
+    glEnable(GL_SCISSOR_TEST);
+    glScissor(x, y, width, height);
+    glClear(GL_COLOR_BUFFER_BIT);
+    bindTargetFramebuffer();
+    applyScissor();
+  }
+  
+  void copyPackedImage(PackedAtlas.Page from, int fromX, int fromY, PackedAtlas.Page to, int toX, int toY, int width, int height) {
+    flush();
+    glDisable(GL_SCISSOR_TEST);
+    glBindFramebuffer(GL_READ_FRAMEBUFFER, from.framebuffer);
+    glBindFramebuffer(GL_DRAW_FRAMEBUFFER, to.framebuffer);
+    glBlitFramebuffer(fromX, fromY, fromX + width, fromY + height, toX, toY, toX + width, toY + height, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+    bindTargetFramebuffer();
+    applyScissor();
+  }
+  
+  PackedAtlas getSharedAtlas() {
+    if (sharedAtlas == null || sharedAtlas.destroyed) {
+      sharedAtlas = createPackedAtlas(Math.min(PackedAtlas.DEFAULT_PAGE_SIZE, glGetInteger(GL_MAX_TEXTURE_SIZE)));
+    }
+    return sharedAtlas;
+  }
+  
   void create(String title, Image image, boolean fullscreen) {
     if (glfwForceMainThread) {
       _create(title, image, fullscreen);
@@ -259,6 +550,8 @@ final class Window extends Drawer {
   
   void _create(String title, Image image, boolean fullscreen) {
     created = true;
+    generation++;
+    textGeneration++;
     glfwWindowHint(GLFW_VISIBLE, GLFW_FALSE);
     glfwWindowHint(GLFW_CONTEXT_VERSION_MAJOR, 4);
     glfwWindowHint(GLFW_CONTEXT_VERSION_MINOR, 3);
@@ -281,7 +574,7 @@ final class Window extends Drawer {
     glfwWindowHint(GLFW_VISIBLE, GLFW_TRUE);
     if (fullscreen && glfwForceMainThread) { glfwWindowHint(GLFW_FLOATING, GLFW_TRUE); }
     window = glfwCreateWindow(width, height, title, (fullscreen && !glfwForceMainThread) ? glfwGetPrimaryMonitor() : NULL, NULL);
-  
+    
     if (image != null) {
       if (image.ignoreAlpha) {
         throw new RuntimeException("Image has to contain alpha (do not call ignoreAlpha=true)!");
@@ -439,140 +732,44 @@ final class Window extends Drawer {
       }, 0L);
     }
     
+    gl.reset();
     glEnable(GL_BLEND);
-    glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA);
+    // alpha is accumulated so that offscreen targets hold premultiplied colors with a correct coverage
+    glBlendFuncSeparate(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA, GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
     
     glDisable(GL_CULL_FACE);
     glDisable(GL_DEPTH_TEST);
     glClearColor(0, 0, 0, 0);
+    if (damageTracking) {
+      createScene();
+      damageAll();
+    }
     
     circleVao = glGenVertexArrays();
-    glBindVertexArray(circleVao);
-    
-    int vertShader = glCreateShader(GL_VERTEX_SHADER);
-    glShaderSource(vertShader, readFile("circle.vert"));
-    glCompileShader(vertShader);
-    if (glGetShaderi(vertShader, GL_COMPILE_STATUS) != GL_TRUE) {
-      throw new RuntimeException(glGetShaderInfoLog(vertShader));
-    }
-    int fragShader = glCreateShader(GL_FRAGMENT_SHADER);
-    glShaderSource(fragShader, readFile("circle.frag"));
-    glCompileShader(fragShader);
-    if (glGetShaderi(fragShader, GL_COMPILE_STATUS) != GL_TRUE) {
-      throw new RuntimeException(glGetShaderInfoLog(fragShader));
-    }
-    circleProgram = glCreateProgram();
-    glAttachShader(circleProgram, vertShader);
-    glAttachShader(circleProgram, fragShader);
-    glLinkProgram(circleProgram);
-    if (glGetProgrami(circleProgram, GL_LINK_STATUS) != GL_TRUE) {
-      throw new RuntimeException(glGetProgramInfoLog(circleProgram));
-    }
-    glDetachShader(circleProgram, vertShader);
-    glDetachShader(circleProgram, fragShader);
-    glDeleteShader(vertShader);
-    glDeleteShader(fragShader);
-    glUseProgram(circleProgram);
-    
+    circleProgram = createProgram("circle.vert", "circle.frag");
     texVao = glGenVertexArrays();
-    glBindVertexArray(texVao);
-    
-    vertShader = glCreateShader(GL_VERTEX_SHADER);
-    glShaderSource(vertShader, readFile("tex.vert"));
-    glCompileShader(vertShader);
-    if (glGetShaderi(vertShader, GL_COMPILE_STATUS) != GL_TRUE) {
-      throw new RuntimeException(glGetShaderInfoLog(vertShader));
-    }
-    fragShader = glCreateShader(GL_FRAGMENT_SHADER);
-    glShaderSource(fragShader, readFile("tex.frag"));
-    glCompileShader(fragShader);
-    if (glGetShaderi(fragShader, GL_COMPILE_STATUS) != GL_TRUE) {
-      throw new RuntimeException(glGetShaderInfoLog(fragShader));
-    }
-    texProgram = glCreateProgram();
-    glAttachShader(texProgram, vertShader);
-    glAttachShader(texProgram, fragShader);
-    glLinkProgram(texProgram);
-    if (glGetProgrami(texProgram, GL_LINK_STATUS) != GL_TRUE) {
-      throw new RuntimeException(glGetProgramInfoLog(texProgram));
-    }
-    glDetachShader(texProgram, vertShader);
-    glDetachShader(texProgram, fragShader);
-    glDeleteShader(vertShader);
-    glDeleteShader(fragShader);
-    glUseProgram(texProgram);
-    
+    texProgram = createProgram("tex.vert", "tex.frag");
+    texArrayProgram = createProgram("tex.vert", "texarray.frag");
     fontVao = glGenVertexArrays();
-    glBindVertexArray(fontVao);
-    
-    vertShader = glCreateShader(GL_VERTEX_SHADER);
-    glShaderSource(vertShader, readFile("font.vert"));
-    glCompileShader(vertShader);
-    if (glGetShaderi(vertShader, GL_COMPILE_STATUS) != GL_TRUE) {
-      throw new RuntimeException(glGetShaderInfoLog(vertShader));
-    }
-    fragShader = glCreateShader(GL_FRAGMENT_SHADER);
-    glShaderSource(fragShader, readFile("font.frag"));
-    glCompileShader(fragShader);
-    if (glGetShaderi(fragShader, GL_COMPILE_STATUS) != GL_TRUE) {
-      throw new RuntimeException(glGetShaderInfoLog(fragShader));
-    }
-    fontProgram = glCreateProgram();
-    glAttachShader(fontProgram, vertShader);
-    glAttachShader(fontProgram, fragShader);
-    glLinkProgram(fontProgram);
-    if (glGetProgrami(fontProgram, GL_LINK_STATUS) != GL_TRUE) {
-      throw new RuntimeException(glGetProgramInfoLog(fontProgram));
-    }
-    glDetachShader(fontProgram, vertShader);
-    glDetachShader(fontProgram, fragShader);
-    glDeleteShader(vertShader);
-    glDeleteShader(fragShader);
-    glUseProgram(fontProgram);
-    
+    fontProgram = createProgram("font.vert", "font.frag");
+    distanceFieldProgram = createProgram("font.vert", "sdf.frag");
     vao = glGenVertexArrays();
-    glBindVertexArray(vao);
-    
-    vertShader = glCreateShader(GL_VERTEX_SHADER);
-    glShaderSource(vertShader, readFile("std.vert"));
-    glCompileShader(vertShader);
-    if (glGetShaderi(vertShader, GL_COMPILE_STATUS) != GL_TRUE) {
-      throw new RuntimeException(glGetShaderInfoLog(vertShader));
-    }
-    fragShader = glCreateShader(GL_FRAGMENT_SHADER);
-    glShaderSource(fragShader, readFile("std.frag"));
-    glCompileShader(fragShader);
-    if (glGetShaderi(fragShader, GL_COMPILE_STATUS) != GL_TRUE) {
-      throw new RuntimeException(glGetShaderInfoLog(fragShader));
-    }
-    program = glCreateProgram();
-    glAttachShader(program, vertShader);
-    glAttachShader(program, fragShader);
-    glLinkProgram(program);
-    if (glGetProgrami(program, GL_LINK_STATUS) != GL_TRUE) {
-      throw new RuntimeException(glGetProgramInfoLog(program));
-    }
-    glDetachShader(program, vertShader);
-    glDetachShader(program, fragShader);
-    glDeleteShader(vertShader);
-    glDeleteShader(fragShader);
-    glUseProgram(program);
-    
-    indexCircleCircle = glGetUniformLocation(circleProgram, "circle");
-    indexCircleColor = glGetUniformLocation(circleProgram, "color");
-    indexCircleMinLength = glGetUniformLocation(circleProgram, "minLength");
-    indexFontFontPosition = glGetUniformLocation(fontProgram, "fontPosition");
-    indexFontImagePosition = glGetUniformLocation(fontProgram, "imagePosition");
-    indexFontColor = glGetUniformLocation(fontProgram, "color");
-    indexStdMatrix = glGetUniformLocation(program, "matrix");
-    indexStdColor = glGetUniformLocation(program, "color");
-    indexTexScreenPosition = glGetUniformLocation(texProgram, "screenPosition");
-    indexTexTexPosition = glGetUniformLocation(texProgram, "texPosition");
-    indexTexAlpha = glGetUniformLocation(texProgram, "alpha");
+    program = createProgram("std.vert", "std.frag");
+    uberVao = glGenVertexArrays();
+    uberProgram = createProgram("uber.vert", "uber.frag");
     
+    gl.useProgram(program);
+    gl.uniform2f(glGetUniformLocation(program, "screenSize"), width, height);
+    gl.useProgram(circleProgram);
+    gl.uniform2f(glGetUniformLocation(circleProgram, "screenSize"), width, height);
+    gl.useProgram(uberProgram);
+    gl.uniform1i(glGetUniformLocation(uberProgram, "image"), 0);
+    gl.uniform1i(glGetUniformLocation(uberProgram, "glyphs"), 1);
+    gl.uniform1i(glGetUniformLocation(uberProgram, "images"), 2);
+    maxArrayTextureLayers = glGetInteger(GL_MAX_ARRAY_TEXTURE_LAYERS);
     
     bufferRectangle = glGenBuffers();
-    glBindBuffer(GL_ARRAY_BUFFER, bufferRectangle);
+    gl.bindArrayBuffer(bufferRectangle);
     float[] rawPositions = {-0.5f, -0.5f, 0.5f, -0.5f, 0.5f, 0.5f, -0.5f, -0.5f, -0.5f, 0.5f, 0.5f, 0.5f};
     try (MemoryStack stack = stackPush()) {
       FloatBuffer fb = stack.mallocFloat(16);
@@ -581,65 +778,75 @@ final class Window extends Drawer {
       glBufferData(GL_ARRAY_BUFFER, fb, GL_STATIC_DRAW);
     }
     
+    // all batched draws are streamed through the same buffer, so every vao points at offset 0 and batches are drawn from their first element
+    GLCapabilities capabilities = GL.getCapabilities();
+    stream = new StreamBuffer(gl, !compatibility && (capabilities.OpenGL44 || capabilities.GL_ARB_buffer_storage), BATCH_SIZE);
+    
+    // rectangles and lines are instances of the unit rectangle
+    gl.bindVertexArray(vao);
+    gl.bindArrayBuffer(bufferRectangle);
     glEnableVertexAttribArray(0);
     glVertexAttribPointer(0, 2, GL_FLOAT, false, 0, 0);
+    gl.bindArrayBuffer(stream.buffer);
+    glEnableVertexAttribArray(1);
+    glVertexAttribPointer(1, 2, GL_FLOAT, false, STD_INSTANCE_SIZE, 0);
+    glVertexAttribDivisor(1, 1);
+    glEnableVertexAttribArray(2);
+    glVertexAttribPointer(2, 2, GL_FLOAT, false, STD_INSTANCE_SIZE, 2 * 4);
+    glVertexAttribDivisor(2, 1);
+    glEnableVertexAttribArray(3);
+    glVertexAttribPointer(3, 1, GL_FLOAT, false, STD_INSTANCE_SIZE, 4 * 4);
+    glVertexAttribDivisor(3, 1);
+    glEnableVertexAttribArray(4);
+    glVertexAttribPointer(4, 4, GL_UNSIGNED_BYTE, true, STD_INSTANCE_SIZE, 5 * 4);
+    glVertexAttribDivisor(4, 1);
     
-    glBindVertexArray(texVao);
+    // circles and rings are instances of a 4-vertex strip generated in the shader
+    gl.bindVertexArray(circleVao);
     glEnableVertexAttribArray(0);
-    glVertexAttribPointer(0, 2, GL_FLOAT, false, 0, 0);
+    glVertexAttribPointer(0, 2, GL_FLOAT, false, CIRCLE_INSTANCE_SIZE, 0);
+    glVertexAttribDivisor(0, 1);
+    glEnableVertexAttribArray(1);
+    glVertexAttribPointer(1, 1, GL_FLOAT, false, CIRCLE_INSTANCE_SIZE, 2 * 4);
+    glVertexAttribDivisor(1, 1);
+    glEnableVertexAttribArray(2);
+    glVertexAttribPointer(2, 1, GL_FLOAT, false, CIRCLE_INSTANCE_SIZE, 3 * 4);
+    glVertexAttribDivisor(2, 1);
+    glEnableVertexAttribArray(3);
+    glVertexAttribPointer(3, 4, GL_UNSIGNED_BYTE, true, CIRCLE_INSTANCE_SIZE, 4 * 4);
+    glVertexAttribDivisor(3, 1);
     
-    glBindVertexArray(fontVao);
+    gl.bindVertexArray(texVao);
     glEnableVertexAttribArray(0);
-    glVertexAttribPointer(0, 2, GL_FLOAT, false, 0, 0);
+    glVertexAttribPointer(0, 2, GL_FLOAT, false, TEX_VERTEX_SIZE, 0);
+    glEnableVertexAttribArray(1);
+    glVertexAttribPointer(1, 2, GL_FLOAT, false, TEX_VERTEX_SIZE, 2 * 4);
+    glEnableVertexAttribArray(2);
+    glVertexAttribPointer(2, 1, GL_FLOAT, false, TEX_VERTEX_SIZE, 4 * 4);
+    glEnableVertexAttribArray(3);
+    glVertexAttribPointer(3, 1, GL_FLOAT, false, TEX_VERTEX_SIZE, 5 * 4);
     
-    bufferMat4x4 = MemoryUtil.memAllocFloat(16);
-    mat4x4 = new Matrix4f();
+    // glyphs are 2 triangles each, colored per vertex so that text of any color shares a batch
+    gl.bindVertexArray(fontVao);
+    glEnableVertexAttribArray(0);
+    glVertexAttribPointer(0, 2, GL_FLOAT, false, FONT_VERTEX_SIZE, 0);
+    glEnableVertexAttribArray(1);
+    glVertexAttribPointer(1, 2, GL_FLOAT, false, FONT_VERTEX_SIZE, 2 * 4);
+    glEnableVertexAttribArray(2);
+    glVertexAttribPointer(2, 4, GL_UNSIGNED_BYTE, true, FONT_VERTEX_SIZE, 4 * 4);
     
-    for (Font font : Font.values()) {
-      try {
-        ByteBuffer buf = Utils.getResourceBuffer(font.getName() + ".ttf");
-        fontBuffer.put(font, buf);
-      } catch (IOException e) {
-        System.err.println("Couldn't fetch font: " + font + ": " + e.getMessage());
-      }
-    }
-  }
-  
-  private FontData getFontData(Font font, float size) {
-    FontKey fontKey = new FontKey(font, size);
-    if (fontKey.equals(lastFontKey)) {
-      return lastFontData;
-    }
-    lastFontKey = fontKey;
-    lastFontData = fontData.computeIfAbsent(fontKey, key -> {
-      ByteBuffer data = fontBuffer.get(font);
-      STBTTPackedchar.Buffer[] charData = {STBTTPackedchar.malloc(128 - 32), STBTTPackedchar.malloc(256 - 192), STBTTPackedchar.malloc(1)};
-      ByteBuffer bitmap = BufferUtils.createByteBuffer(1024 * 1024);
-      try (STBTTPackContext pc = STBTTPackContext.malloc()) {
-        stbtt_PackBegin(pc, bitmap, 1024, 1024, 0, 1);
-        stbtt_PackSetOversampling(pc, 3, 1);
-        STBTTPackRange.Buffer ranges = STBTTPackRange.malloc(3);
-        memSet(ranges.address(), 0, ranges.capacity() * STBTTPackRange.SIZEOF);
-        ranges.get(0).font_size(size).first_unicode_codepoint_in_range(32).num_chars(128 - 32).chardata_for_range(charData[0]);
-        ranges.get(1).font_size(size).first_unicode_codepoint_in_range(192).num_chars(256 - 192).chardata_for_range(charData[1]);
-        ranges.get(2).font_size(size).first_unicode_codepoint_in_range(8226).num_chars(1).chardata_for_range(charData[2]);
-        stbtt_PackFontRanges(pc, data, 0, ranges);
-        ranges.free();
-        stbtt_PackEnd(pc);
-      }
-      
-      glBindVertexArray(texVao);
-      int texture = glGenTextures();
-      glBindTexture(GL_TEXTURE_2D, texture);
-      glTexImage2D(GL_TEXTURE_2D, 0, GL_R8, 1024, 1024, 0, GL_RED, GL_UNSIGNED_BYTE, bitmap);
-      glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAG_FILTER, GL_LINEAR);
-      glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
-      
-      STBTTFontinfo info = STBTTFontinfo.malloc();
-      stbtt_InitFont(info, fontBuffer.get(font));
-      return new FontData(texture, charData, info);
-    });
-    return lastFontData;
+    // all primitives as triangles, the fragment shader picks the shading from the primitive kind
+    gl.bindVertexArray(uberVao);
+    glEnableVertexAttribArray(0);
+    glVertexAttribPointer(0, 2, GL_FLOAT, false, UBER_VERTEX_SIZE, 0);
+    glEnableVertexAttribArray(1);
+    glVertexAttribPointer(1, 2, GL_FLOAT, false, UBER_VERTEX_SIZE, 2 * 4);
+    glEnableVertexAttribArray(2);
+    glVertexAttribPointer(2, 4, GL_UNSIGNED_BYTE, true, UBER_VERTEX_SIZE, 4 * 4);
+    glEnableVertexAttribArray(3);
+    glVertexAttribPointer(3, 2, GL_FLOAT, false, UBER_VERTEX_SIZE, 4 * 4 + 4);
+    
+    glyphAtlas = new GlyphAtlas(gl, glyphCacheSize);
   }
   
   void destroy() {
@@ -657,33 +864,271 @@ final class Window extends Drawer {
   
   void _destroy() {
     created = false;
-    fontData.forEach((font, data) -> {
-      for (STBTTPackedchar.Buffer buffer : data.charData) {
-        buffer.free();
-      }
-      glDeleteTextures(data.texture);
-    });
+    glyphRuns.clear();
+    pendingUploads.forEach(Window::deleteUpload);
+    pendingUploads.clear();
+    // the textures of the pages are deleted with the other textures
+    pageFramebuffers.forEach(GL30::glDeleteFramebuffers);
+    pageFramebuffers.clear();
+    if (sharedAtlas != null) {
+      sharedAtlas.destroyed = true;
+      sharedAtlas = null;
+    }
+    glyphAtlas.destroy();
+    glyphAtlas = null;
     texturesIndexes.forEach(GL11::glDeleteTextures);
+    if (damageTracking) {
+      deleteScene();
+    }
+    for (LayerCache cache : layerCaches) {
+      glDeleteFramebuffers(cache.framebuffer);
+      glDeleteTextures(cache.texture);
+      cache.framebuffer = 0;
+      cache.texture = 0;
+      cache.valid = false;
+    }
+    layerCaches.clear();
     glDeleteBuffers(bufferRectangle);
+    stream.destroy();
     glDeleteVertexArrays(vao);
     glDeleteVertexArrays(circleVao);
     glDeleteVertexArrays(texVao);
     glDeleteVertexArrays(fontVao);
+    glDeleteVertexArrays(uberVao);
     glDeleteProgram(program);
     glDeleteProgram(circleProgram);
     glDeleteProgram(texProgram);
+    glDeleteProgram(texArrayProgram);
     glDeleteProgram(fontProgram);
-    memFree(bufferMat4x4);
+    glDeleteProgram(distanceFieldProgram);
+    glDeleteProgram(uberProgram);
     glfwDestroyWindow(window);
     glfwTerminate();
   }
   
-  void flip() {
-    glfwSwapBuffers(window);
+  /**
+   * Prepares the rendering of a frame, returns false if there is nothing to redraw, in which case the frame must be skipped.
+   */
+  boolean beginFrame() {
+    glyphAtlas.nextFrame();
+    if (glyphAtlas.poll()) {
+      // text was drawn without some of its glyphs, which are now rasterized
+      redrawUploaded();
+    }
+    if (!pendingUploads.isEmpty()) {
+      pollUploads();
+    }
+    clipDepth = 0;
+    clipMinX = 0;
+    clipMinY = 0;
+    clipMaxX = width;
+    clipMaxY = height;
+    if (!damageTracking) {
+      return true;
+    }
+    if (damageMinX >= damageMaxX || damageMinY >= damageMaxY) {
+      return false;
+    }
+    frameMinX = damageMinX;
+    frameMinY = damageMinY;
+    frameMaxX = damageMaxX;
+    frameMaxY = damageMaxY;
+    glBindFramebuffer(GL_FRAMEBUFFER, sceneFramebuffer);
+    applyScissor();
     glClear(GL_COLOR_BUFFER_BIT);
+    // components marked dirty while rendering are redrawn on the next frame
+    damageMinX = damageMinY = damageMaxX = damageMaxY = 0;
+    return true;
+  }
+  
+  void flip() {
+    flush();
+    renderStats = new RenderStats(drawCalls, gl.getIssued(), gl.getElided(), culled);
+    drawCalls = 0;
+    culled = 0;
+    gl.resetCounts();
+    glDisable(GL_SCISSOR_TEST);
+    if (damageTracking) {
+      glBindFramebuffer(GL_READ_FRAMEBUFFER, sceneFramebuffer);
+      glBindFramebuffer(GL_DRAW_FRAMEBUFFER, 0);
+      glBlitFramebuffer(0, 0, width, height, 0, 0, width, height, GL_COLOR_BUFFER_BIT, GL_NEAREST);
+      glBindFramebuffer(GL_FRAMEBUFFER, 0);
+      glfwSwapBuffers(window);
+    } else {
+      glfwSwapBuffers(window);
+      glClear(GL_COLOR_BUFFER_BIT);
+    }
     time = System.nanoTime();
   }
   
+  /**
+   * Waits until the time the next frame would have been shown, when a frame is skipped because nothing changed.
+   */
+  void skipFrame() {
+    renderStats = new RenderStats(0, 0, 0, 0);
+    long wait = time + 1000000000L / (refreshRate > 0 ? refreshRate : 60) - System.nanoTime();
+    if (wait > 0) {
+      try {
+        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+      } catch (InterruptedException ignore) {
+      }
+    }
+    time = System.nanoTime();
+  }
+  
+  void damage(double x, double y, double width, double height) {
+    if (!damageTracking) {
+      return;
+    }
+    // 1 pixel margin for the rounding of draw coordinates
+    int minX = Math.max(0, (int) Math.floor(x) - 1);
+    int minY = Math.max(0, (int) Math.floor(y) - 1);
+    int maxX = Math.min(Window.width, (int) Math.ceil(x + width) + 1);
+    int maxY = Math.min(Window.height, (int) Math.ceil(y + height) + 1);
+    if (minX >= maxX || minY >= maxY) {
+      return;
+    }
+    if (damageMinX >= damageMaxX || damageMinY >= damageMaxY) {
+      damageMinX = minX;
+      damageMinY = minY;
+      damageMaxX = maxX;
+      damageMaxY = maxY;
+    } else {
+      damageMinX = Math.min(damageMinX, minX);
+      damageMinY = Math.min(damageMinY, minY);
+      damageMaxX = Math.max(damageMaxX, maxX);
+      damageMaxY = Math.max(damageMaxY, maxY);
+    }
+  }
+  
+  void damageAll() {
+    damageMinX = 0;
+    damageMinY = 0;
+    damageMaxX = width;
+    damageMaxY = height;
+  }
+  
+  void setDamageTracking(boolean damageTracking) {
+    if (this.damageTracking == damageTracking) {
+      return;
+    }
+    if (created) {
+      flush();
+      if (damageTracking) {
+        createScene();
+      } else {
+        deleteScene();
+      }
+    }
+    this.damageTracking = damageTracking;
+    damageAll();
+  }
+  
+  private void createScene() {
+    sceneTexture = createTargetTexture();
+    sceneFramebuffer = createFramebuffer(sceneTexture);
+  }
+  
+  private int createTargetTexture() {
+    int texture = glGenTextures();
+    gl.bindTexture(0, texture);
+    glTexImage2D(GL_TEXTURE_2D, 0, GL_RGBA8, width, height, 0, GL_RGBA, GL_UNSIGNED_BYTE, NULL);
+    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_BASE_LEVEL, 0);
+    glTexParameteri(GL_TEXTURE_2D, GL_TEXTURE_MAX_LEVEL, 0);
+    return texture;
+  }
+  
+  /**
+   * Creates a framebuffer that renders to the specified texture, clears it, then binds the framebuffer that frames are rendered to.
+   */
+  private int createFramebuffer(int texture) {
+    int framebuffer = glGenFramebuffers();
+    glBindFramebuffer(GL_FRAMEBUFFER, framebuffer);
+    glFramebufferTexture2D(GL_FRAMEBUFFER, GL_COLOR_ATTACHMENT0, GL_TEXTURE_2D, texture, 0);
+    if (glCheckFramebufferStatus(GL_FRAMEBUFFER) != GL_FRAMEBUFFER_COMPLETE) {
+      throw new RuntimeException("Couldn't create a framebuffer!");
+    }
+    glDisable(GL_SCISSOR_TEST);
+    glClear(GL_COLOR_BUFFER_BIT);
+    bindTargetFramebuffer();
+    applyScissor();
+    return framebuffer;
+  }
+  
+  private void bindFrameFramebuffer() {
+    glBindFramebuffer(GL_FRAMEBUFFER, damageTracking ? sceneFramebuffer : 0);
+  }
+  
+  // binds the framebuffer being drawn to, which is a layer cache while rendering one
+  private void bindTargetFramebuffer() {
+    if (renderingCache) {
+      glBindFramebuffer(GL_FRAMEBUFFER, cacheFramebuffer);
+    } else {
+      bindFrameFramebuffer();
+    }
+  }
+  
+  private void deleteScene() {
+    glDeleteFramebuffers(sceneFramebuffer);
+    glDeleteTextures(sceneTexture);
+    gl.deleteTexture(sceneTexture);
+    sceneFramebuffer = 0;
+    sceneTexture = 0;
+  }
+  
+  void setSorting(boolean sorting) {
+    if (this.sorting == sorting) {
+      return;
+    }
+    if (created) {
+      flush();
+    }
+    this.sorting = sorting;
+  }
+  
+  void setUnified(boolean unified) {
+    if (this.unified == unified) {
+      return;
+    }
+    if (created) {
+      flush();
+    }
+    this.unified = unified;
+  }
+  
+  RenderStats getRenderStats() {
+    return renderStats;
+  }
+  
+  void setGlyphRunCacheSize(long size) {
+    glyphRuns.setCapacity(size);
+  }
+  
+  void setGlyphCacheSize(long size) {
+    glyphCacheSize = size;
+    if (glyphAtlas != null) {
+      glyphAtlas.setCapacity(size);
+    }
+  }
+  
+  void setDistanceField(boolean distanceField) {
+    if (this.distanceField == distanceField) {
+      return;
+    }
+    this.distanceField = distanceField;
+    // the cached runs reference the glyphs of the other mode
+    glyphRuns.clear();
+    textGeneration++;
+  }
+  
+  void setPackingSize(int packingSize) {
+    this.packingSize = packingSize;
+  }
+  
+  int getPackingSize() {
+    return packingSize;
+  }
+  
   void setVisible(boolean visible) {
     if (visible) {
       glfwMaximizeWindow(window);
@@ -711,215 +1156,870 @@ final class Window extends Drawer {
     }
   }
   
+  @Override
+  public void pushClip(double x, double y, double width, double height) {
+    int minX = (int) Math.floor(x + translateX);
+    int minY = (int) Math.floor(y + translateY);
+    int maxX = (int) Math.ceil(x + translateX + width);
+    int maxY = (int) Math.ceil(y + translateY + height);
+    pushClipAbsolute(minX, minY, maxX, maxY);
+  }
+  
+  private void pushClipAbsolute(int minX, int minY, int maxX, int maxY) {
+    if (recording != null) {
+      recording.pushClip(minX, minY, maxX, maxY);
+    }
+    flush();
+    if (clipDepth * 4 == clipStack.length) {
+      clipStack = Arrays.copyOf(clipStack, clipStack.length * 2);
+    }
+    clipStack[clipDepth * 4] = clipMinX;
+    clipStack[clipDepth * 4 + 1] = clipMinY;
+    clipStack[clipDepth * 4 + 2] = clipMaxX;
+    clipStack[clipDepth * 4 + 3] = clipMaxY;
+    clipDepth++;
+    clipMinX = Math.max(clipMinX, minX);
+    clipMinY = Math.max(clipMinY, minY);
+    clipMaxX = Math.max(clipMinX, Math.min(clipMaxX, maxX));
+    clipMaxY = Math.max(clipMinY, Math.min(clipMaxY, maxY));
+    applyScissor();
+  }
+  
+  @Override
+  public void popClip() {
+    if (clipDepth == 0) {
+      throw new IllegalStateException("The clip stack is empty!");
+    }
+    if (recording != null) {
+      recording.popClip();
+    }
+    flush();
+    clipDepth--;
+    clipMinX = clipStack[clipDepth * 4];
+    clipMinY = clipStack[clipDepth * 4 + 1];
+    clipMaxX = clipStack[clipDepth * 4 + 2];
+    clipMaxY = clipStack[clipDepth * 4 + 3];
+    applyScissor();
+  }
+  
+  /**
+   * Sets the scissor to the current clip, intersected with the region redrawn by the frame when using damage tracking.
+   */
+  private void applyScissor() {
+    int minX = clipMinX, minY = clipMinY, maxX = clipMaxX, maxY = clipMaxY;
+    if (damageTracking && !renderingCache) {
+      minX = Math.max(minX, frameMinX);
+      minY = Math.max(minY, frameMinY);
+      maxX = Math.max(minX, Math.min(maxX, frameMaxX));
+      maxY = Math.max(minY, Math.min(maxY, frameMaxY));
+    }
+    if (minX <= 0 && minY <= 0 && maxX >= width && maxY >= height) {
+      glDisable(GL_SCISSOR_TEST);
+      return;
+    }
+    glEnable(GL_SCISSOR_TEST);
+    glScissor(minX, minY, maxX - minX, maxY - minY);
+  }
+  
+  /**
+   * Returns true, and counts the draw as culled, if a draw with the specified screen bounds wouldn't change any pixel.
+   */
+  private boolean isCulled(double minX, double minY, double maxX, double maxY) {
+    if (draining) {
+      // queued draws were already tested
+      return false;
+    }
+    boolean culled = maxX <= clipMinX || minX >= clipMaxX || maxY <= clipMinY || minY >= clipMaxY;
+    // recorded draws are replayed on later frames, that may redraw another region
+    if (!culled && damageTracking && !renderingCache && recording == null) {
+      culled = maxX <= frameMinX || minX >= frameMaxX || maxY <= frameMinY || minY >= frameMaxY;
+    }
+    if (culled) {
+      this.culled++;
+    }
+    return culled;
+  }
+  
+  @Override
+  void startCache(LayerCache cache) {
+    flush();
+    if (cache.framebuffer == 0) {
+      cache.texture = createTargetTexture();
+      cache.framebuffer = createFramebuffer(cache.texture);
+      layerCaches.add(cache);
+    }
+    glBindFramebuffer(GL_FRAMEBUFFER, cache.framebuffer);
+    cacheFramebuffer = cache.framebuffer;
+    renderingCache = true;
+    applyScissor();
+    glClear(GL_COLOR_BUFFER_BIT);
+  }
+  
+  @Override
+  void stopCache() {
+    flush();
+    renderingCache = false;
+    cacheFramebuffer = 0;
+    bindFrameFramebuffer();
+    applyScissor();
+  }
+  
+  @Override
+  boolean drawCache(LayerCache cache) {
+    if (!cache.valid || cache.framebuffer == 0) {
+      return false;
+    }
+    // the cache holds premultiplied colors
+    flush();
+    glBlendFunc(GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
+    if (unified) {
+      prepareUber(cache.texture, 0, 0, 6 * UBER_VERTEX_SIZE);
+    } else {
+      prepareBatch(BATCH_TEX, cache.texture, 6 * TEX_VERTEX_SIZE);
+    }
+    putTexVertex(0, 0, 0, 0, -1, 1);
+    putTexVertex(width, 0, 1, 0, -1, 1);
+    putTexVertex(width, height, 1, 1, -1, 1);
+    putTexVertex(0, 0, 0, 0, -1, 1);
+    putTexVertex(0, height, 0, 1, -1, 1);
+    putTexVertex(width, height, 1, 1, -1, 1);
+    flush();
+    glBlendFuncSeparate(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA, GL_ONE, GL_ONE_MINUS_SRC_ALPHA);
+    return true;
+  }
+  
+  void deleteCache(LayerCache cache) {
+    cache.valid = false;
+    if (cache.framebuffer == 0) {
+      return;
+    }
+    flush();
+    glDeleteFramebuffers(cache.framebuffer);
+    glDeleteTextures(cache.texture);
+    gl.deleteTexture(cache.texture);
+    layerCaches.remove(cache);
+    cache.framebuffer = 0;
+    cache.texture = 0;
+  }
+  
+  @Override
+  void startRecording(DrawList list) {
+    list.clear();
+    list.generation = generation;
+    recording = list;
+  }
+  
+  @Override
+  void stopRecording() {
+    recording = null;
+  }
+  
+  @Override
+  boolean replay(DrawList list) {
+    if (!list.valid || list.generation != generation) {
+      return false;
+    }
+    int arg = 0;
+    int ref = 0;
+    for (int i = 0; i < list.opCount; i++) {
+      int op = list.ops[i];
+      emit(op, list.args, arg, DrawList.REFS[op] == 0 ? null : list.refs[ref]);
+      arg += DrawList.ARGS[op];
+      ref += DrawList.REFS[op];
+    }
+    return true;
+  }
+  
+  private void emit(int op, double[] args, int arg, Object ref) {
+    switch (op) {
+      case DrawList.RECTANGLE:
+        putStdInstance(args[arg], args[arg + 1], args[arg + 2], args[arg + 3], args[arg + 4], (int) args[arg + 5]);
+        break;
+      case DrawList.RING:
+        putRing(args[arg], args[arg + 1], args[arg + 2], (float) args[arg + 3], (int) args[arg + 4]);
+        break;
+      case DrawList.IMAGE:
+        putImage(args[arg], args[arg + 1], args[arg + 2], args[arg + 3], args[arg + 4], args[arg + 5], args[arg + 6], args[arg + 7], (Texture) ref, args[arg + 8], args[arg + 9]);
+        break;
+      case DrawList.TEXT:
+        putGlyphRun((GlyphRun) ref, args[arg], args[arg + 1], (int) args[arg + 2]);
+        break;
+      case DrawList.COLOR:
+        setMainColor((int) args[arg]);
+        break;
+      case DrawList.PUSH_CLIP:
+        pushClipAbsolute((int) args[arg], (int) args[arg + 1], (int) args[arg + 2], (int) args[arg + 3]);
+        break;
+      case DrawList.POP_CLIP:
+        popClip();
+        break;
+    }
+  }
+  
+  /**
+   * Draws all the draws queued for reordering, bucket by bucket.
+   */
+  private void drainSorter() {
+    draining = true;
+    DrawList commands = sorter.commands;
+    for (int bucket = 0; bucket < sorter.getBucketCount(); bucket++) {
+      for (int op = sorter.getHead(bucket); op != -1; op = sorter.getNext(op)) {
+        int type = commands.ops[op];
+        emit(type, commands.args, sorter.getArgStart(op), DrawList.REFS[type] == 0 ? null : commands.refs[sorter.getRefStart(op)]);
+      }
+    }
+    sorter.clear();
+    draining = false;
+  }
+  
+  // half extents of the bounding box of a rotated rectangle
+  private static double getExtentX(double width, double height, double angle) {
+    if (angle == 0) {
+      return Math.abs(width) / 2;
+    }
+    return (Math.abs(Math.cos(angle) * width) + Math.abs(Math.sin(angle) * height)) / 2;
+  }
+  
+  private static double getExtentY(double width, double height, double angle) {
+    if (angle == 0) {
+      return Math.abs(height) / 2;
+    }
+    return (Math.abs(Math.sin(angle) * width) + Math.abs(Math.cos(angle) * height)) / 2;
+  }
+  
   @Override
   public void fillRing(double x, double y, double radius, double width, Color color) {
-    glUseProgram(circleProgram);
-    glBindVertexArray(circleVao);
-    currentCircleColor = setColor(color, currentCircleColor, mainCircleColor, indexCircleColor);
-    glUniform1f(indexCircleMinLength, width <= 0 ? 0 : (float) ((1 - width / radius) * (1 - width / radius)));
-    glUniform4f(indexCircleCircle, (float) (((int) x + 0.5 + translateX) * 2 / Window.width - 1), (float) (((int) y + 0.5 + translateY) * 2 / height - 1), (float) (radius * 2 / Window.width), (float) (radius * 2 / height));
-    glDrawArrays(GL_TRIANGLE_STRIP, 0, 4);
+    double centerX = (int) x + 0.5 + translateX;
+    double centerY = (int) y + 0.5 + translateY;
+    float minLength = width <= 0 ? 0 : (float) ((1 - width / radius) * (1 - width / radius));
+    putRing(centerX, centerY, radius, minLength, color == null ? mainCircleColor : color.getRGB());
+  }
+  
+  private void putRing(double centerX, double centerY, double radius, float minLength, int rgb) {
+    if (isCulled(centerX - radius, centerY - radius, centerX + radius, centerY + radius)) {
+      return;
+    }
+    if (recording != null && !draining) {
+      recording.ring(centerX, centerY, radius, minLength, rgb);
+    }
+    if (sorting && !draining) {
+      sorter.add(unified ? BATCH_UBER : BATCH_CIRCLE, 0, centerX - radius, centerY - radius, centerX + radius, centerY + radius);
+      sorter.commands.ring(centerX, centerY, radius, minLength, rgb);
+      return;
+    }
+    if (unified) {
+      prepareUber(0, 0, 0, 6 * UBER_VERTEX_SIZE);
+      putUberVertex(centerX - radius, centerY - radius, -1, -1, rgb, UBER_CIRCLE, minLength);
+      putUberVertex(centerX + radius, centerY - radius, 1, -1, rgb, UBER_CIRCLE, minLength);
+      putUberVertex(centerX + radius, centerY + radius, 1, 1, rgb, UBER_CIRCLE, minLength);
+      putUberVertex(centerX - radius, centerY - radius, -1, -1, rgb, UBER_CIRCLE, minLength);
+      putUberVertex(centerX - radius, centerY + radius, -1, 1, rgb, UBER_CIRCLE, minLength);
+      putUberVertex(centerX + radius, centerY + radius, 1, 1, rgb, UBER_CIRCLE, minLength);
+      return;
+    }
+    prepareBatch(BATCH_CIRCLE, 0, CIRCLE_INSTANCE_SIZE);
+    batch.putFloat((float) centerX).putFloat((float) centerY).putFloat((float) radius).putFloat(minLength);
+    putColor(rgb);
   }
   
   @Override
   public void fillRectangle(double x, double y, double width, double height, double angle, Color color) {
-    glUseProgram(program);
-    glBindVertexArray(vao);
-    currentStdColor = setColor(color, currentStdColor, mainStdColor, indexStdColor);
-    mat4x4.translation(-1, -1, 0).scale(2f / Window.width, 2f / Window.height, 1).translate((float) ((int) x + 0.5 + translateX), (float) ((int) y + 0.5 + translateY), 0).rotateZ((float) angle).scale((float) width, (float) height, 1);
-    bufferMat4x4.clear();
-    glUniformMatrix4fv(indexStdMatrix, false, mat4x4.get(bufferMat4x4));
-    glDrawArrays(GL_TRIANGLES, 0, 6);
+    putStdInstance((int) x + 0.5 + translateX, (int) y + 0.5 + translateY, width, height, angle, color == null ? mainStdColor : color.getRGB());
   }
   
   @Override
   public void drawLineCenter(double x, double y, double length, double angle, Color color) {
-    glUseProgram(program);
-    glBindVertexArray(vao);
-    currentStdColor = setColor(color, currentStdColor, mainStdColor, indexStdColor);
-    mat4x4.translation(-1, -1, 0).scale(2f / width, 2f / height, 1).translate((float) ((int) x + 0.5 + translateX), (float) ((int) y + 0.5 + translateY), 0)
-            .rotateZ((float) angle).scale((float) length, 1, 1);
-    bufferMat4x4.clear();
-    glUniformMatrix4fv(indexStdMatrix, false, mat4x4.get(bufferMat4x4));
-    glDrawArrays(GL_TRIANGLES, 0, 6);
+    putStdInstance((int) x + 0.5 + translateX, (int) y + 0.5 + translateY, length, 1, angle, color == null ? mainStdColor : color.getRGB());
+  }
+  
+  private void putStdInstance(double x, double y, double width, double height, double angle, int rgb) {
+    double extentX = getExtentX(width, height, angle);
+    double extentY = getExtentY(width, height, angle);
+    if (isCulled(x - extentX, y - extentY, x + extentX, y + extentY)) {
+      return;
+    }
+    if (recording != null && !draining) {
+      recording.rectangle(x, y, width, height, angle, rgb);
+    }
+    if (sorting && !draining) {
+      sorter.add(unified ? BATCH_UBER : BATCH_STD, 0, x - extentX, y - extentY, x + extentX, y + extentY);
+      sorter.commands.rectangle(x, y, width, height, angle, rgb);
+      return;
+    }
+    if (unified) {
+      prepareUber(0, 0, 0, 6 * UBER_VERTEX_SIZE);
+      double cos = angle == 0 ? 1 : Math.cos(angle);
+      double sin = angle == 0 ? 0 : Math.sin(angle);
+      double xx = cos * width / 2, xy = sin * width / 2;
+      double yx = -sin * height / 2, yy = cos * height / 2;
+      putUberVertex(x - xx - yx, y - xy - yy, 0, 0, rgb, UBER_SOLID, 0);
+      putUberVertex(x + xx - yx, y + xy - yy, 0, 0, rgb, UBER_SOLID, 0);
+      putUberVertex(x + xx + yx, y + xy + yy, 0, 0, rgb, UBER_SOLID, 0);
+      putUberVertex(x - xx - yx, y - xy - yy, 0, 0, rgb, UBER_SOLID, 0);
+      putUberVertex(x - xx + yx, y - xy + yy, 0, 0, rgb, UBER_SOLID, 0);
+      putUberVertex(x + xx + yx, y + xy + yy, 0, 0, rgb, UBER_SOLID, 0);
+      return;
+    }
+    prepareBatch(BATCH_STD, 0, STD_INSTANCE_SIZE);
+    batch.putFloat((float) x).putFloat((float) y).putFloat((float) width).putFloat((float) height).putFloat((float) angle);
+    putColor(rgb);
+  }
+  
+  private void putColor(int rgb) {
+    batch.put((byte) (rgb >> 16)).put((byte) (rgb >> 8)).put((byte) rgb).put((byte) (rgb >>> 24));
   }
   
   @Override
   public void drawImage(double x, double y, double width, double height, double s1, double t1, double s2, double t2, Texture texture, double angle, double alpha) {
     Objects.requireNonNull(texture);
-    if ((texture instanceof SimpleTexture && ((SimpleTexture) texture).destroyed) || (texture instanceof AtlasTexture && (((AtlasTexture) texture).destroyed || ((AtlasTexture) texture).atlas.destroyed))) {
+    putImage((int) x + 0.5 + translateX, (int) y + 0.5 + translateY, width, height, s1, t1, s2, t2, texture, angle, alpha);
+  }
+  
+  private void putImage(double centerX, double centerY, double width, double height, double s1, double t1, double s2, double t2, Texture texture, double angle, double alpha) {
+    if ((texture instanceof SimpleTexture && ((SimpleTexture) texture).destroyed) || (texture instanceof AtlasTexture && (((AtlasTexture) texture).destroyed || ((AtlasTexture) texture).atlas.destroyed)) || (texture instanceof PackedTexture && (((PackedTexture) texture).destroyed || ((PackedTexture) texture).atlas.destroyed))) {
       throw new RuntimeException("Tried to draw destroyed texture!");
     }
-    glUseProgram(texProgram);
-    glBindVertexArray(texVao);
-    glBindTexture(GL_TEXTURE_2D, texture instanceof SimpleTexture ? ((SimpleTexture) texture).texture : ((AtlasTexture) texture).atlas.texture);
-    mat4x4.translation(-1, -1, 0).scale(2f / Window.width, 2f / Window.height, 1).translate((float) ((int) x + 0.5 + translateX), (float) ((int) y + 0.5 + translateY), 0).rotateZ((float) angle).scale((float) width, (float) height, 1);
-    glUniformMatrix4fv(indexTexScreenPosition, false, mat4x4.get(bufferMat4x4));
-    if (currentTexAlpha != alpha) {
-      currentTexAlpha = alpha;
-      glUniform1f(indexTexAlpha, (float) alpha);
-    }
+    int glTexture;
     if (texture instanceof SimpleTexture) {
-      mat4x4.scaling(1f / texture.getWidth(), -1f / texture.getHeight(), 1).translate((float) s1, (float) t1, 0).scale((float) (s2 - s1), (float) (t2 - t1), 1).translate(0.5f, 0.5f, 0.0f);
+      glTexture = ((SimpleTexture) texture).texture;
     } else if (texture instanceof AtlasTexture) {
-      int n = ((AtlasTexture) texture).atlas.n;
-      int i = ((AtlasTexture) texture).i;
-      mat4x4.scaling(1f / (n * texture.getWidth()), -1f / texture.getHeight(), 1).translate((float) s1 + i * texture.getWidth(), (float) t1, 0).scale((float) (s2 - s1), (float) (t2 - t1), 1).translate(0.5f, 0.5f, 0.0f);
+      glTexture = ((AtlasTexture) texture).atlas.texture;
+    } else {
+      glTexture = ((PackedTexture) texture).page.texture;
+    }
+    boolean array = texture instanceof AtlasTexture && ((AtlasTexture) texture).atlas.array;
+    double extentX = getExtentX(width, height, angle);
+    double extentY = getExtentY(width, height, angle);
+    if (isCulled(centerX - extentX, centerY - extentY, centerX + extentX, centerY + extentY)) {
+      return;
+    }
+    if (recording != null && !draining) {
+      recording.image(centerX, centerY, width, height, s1, t1, s2, t2, texture, angle, alpha);
+    }
+    // drawn by the frames after its upload completes, which are fully redrawn
+    if (texture instanceof SimpleTexture && !((SimpleTexture) texture).ready || texture instanceof AtlasTexture && !((AtlasTexture) texture).ready) {
+      return;
+    }
+    if (sorting && !draining) {
+      sorter.add(unified ? BATCH_UBER : array ? BATCH_TEX_ARRAY : BATCH_TEX, glTexture, centerX - extentX, centerY - extentY, centerX + extentX, centerY + extentY);
+      sorter.commands.image(centerX, centerY, width, height, s1, t1, s2, t2, texture, angle, alpha);
+      return;
+    }
+    if (unified) {
+      prepareUber(array ? 0 : glTexture, array ? glTexture : 0, 0, 6 * UBER_VERTEX_SIZE);
+    } else {
+      prepareBatch(array ? BATCH_TEX_ARRAY : BATCH_TEX, glTexture, 6 * TEX_VERTEX_SIZE);
+    }
+    float textureWidth = texture.getWidth();
+    float textureHeight = texture.getHeight();
+    float sOffset = 0;
+    float layer = -1;
+    float u1, u2, v1, v2;
+    if (texture instanceof PackedTexture) {
+      PackedTexture packed = (PackedTexture) texture;
+      float pageSize = packed.atlas.pageSize;
+      u1 = (float) (packed.x + s1) / pageSize;
+      u2 = (float) (packed.x + s2) / pageSize;
+      v1 = (float) (packed.y + textureHeight - t1) / pageSize;
+      v2 = (float) (packed.y + textureHeight - t2) / pageSize;
+    } else {
+      if (array) {
+        layer = ((AtlasTexture) texture).i;
+      } else if (texture instanceof AtlasTexture) {
+        sOffset = ((AtlasTexture) texture).i * textureWidth;
+        textureWidth *= ((AtlasTexture) texture).atlas.n;
+      }
+      u1 = (float) (s1 + sOffset) / textureWidth;
+      u2 = (float) (s2 + sOffset) / textureWidth;
+      v1 = 1 - (float) t1 / textureHeight;
+      v2 = 1 - (float) t2 / textureHeight;
+    }
+    double cos = angle == 0 ? 1 : Math.cos(angle);
+    double sin = angle == 0 ? 0 : Math.sin(angle);
+    double xx = cos * width / 2, xy = sin * width / 2;
+    double yx = -sin * height / 2, yy = cos * height / 2;
+    float a = (float) alpha;
+    // two triangles: lower-left, lower-right, upper-right, lower-left, upper-left, upper-right
+    putTexVertex(centerX - xx - yx, centerY - xy - yy, u1, v1, layer, a);
+    putTexVertex(centerX + xx - yx, centerY + xy - yy, u2, v1, layer, a);
+    putTexVertex(centerX + xx + yx, centerY + xy + yy, u2, v2, layer, a);
+    putTexVertex(centerX - xx - yx, centerY - xy - yy, u1, v1, layer, a);
+    putTexVertex(centerX - xx + yx, centerY - xy + yy, u1, v2, layer, a);
+    putTexVertex(centerX + xx + yx, centerY + xy + yy, u2, v2, layer, a);
+  }
+  
+  // layer is -1 for 2D textures
+  private void putTexVertex(double x, double y, float s, float t, float layer, float alpha) {
+    if (unified) {
+      int rgb = Math.round(Math.max(0, Math.min(1, alpha)) * 255) << 24 | 0xFFFFFF;
+      if (layer >= 0) {
+        putUberVertex(x, y, s, t, rgb, UBER_IMAGE_ARRAY, layer);
+      } else {
+        putUberVertex(x, y, s, t, rgb, UBER_IMAGE, 0);
+      }
+      return;
+    }
+    batch.putFloat((float) (x * 2 / width - 1)).putFloat((float) (y * 2 / height - 1)).putFloat(s).putFloat(t).putFloat(alpha).putFloat(layer);
+  }
+  
+  /**
+   * Makes room for a draw of the specified kind in the current batch, flushing it first if it is of another kind, uses another texture, or is full.
+   */
+  private void prepareBatch(int kind, int texture, int size) {
+    if (batchKind != kind || batchTexture != texture || batch.remaining() < size) {
+      flush();
+      batchKind = kind;
+      batchTexture = texture;
+      batch = stream.begin(getStride(kind), size);
+    }
+  }
+  
+  /**
+   * Makes room for a draw in the current unified batch, flushing it first if it is of another kind, is full, or uses another image, array or glyph texture than the specified ones (0 meaning no texture).
+   */
+  private void prepareUber(int imageTexture, int arrayTexture, int fontTexture, int size) {
+    if (batchKind != BATCH_UBER || imageTexture != 0 && batchTexture != 0 && imageTexture != batchTexture || arrayTexture != 0 && batchArrayTexture != 0 && arrayTexture != batchArrayTexture || fontTexture != 0 && batchFontTexture != 0 && fontTexture != batchFontTexture || batch.remaining() < size) {
+      flush();
+      batchKind = BATCH_UBER;
+      batch = stream.begin(UBER_VERTEX_SIZE, size);
+    }
+    if (imageTexture != 0) {
+      batchTexture = imageTexture;
+    }
+    if (arrayTexture != 0) {
+      batchArrayTexture = arrayTexture;
+    }
+    if (fontTexture != 0) {
+      batchFontTexture = fontTexture;
+    }
+  }
+  
+  private void putUberVertex(double x, double y, float s, float t, int rgb, int kind, float minLength) {
+    batch.putFloat((float) (x * 2 / width - 1)).putFloat((float) (y * 2 / height - 1)).putFloat(s).putFloat(t);
+    putColor(rgb);
+    batch.putFloat(kind).putFloat(minLength);
+  }
+  
+  /**
+   * Submits all draws that have been batched but not yet sent to the GPU.
+   * <p>
+   * Must be called before any GL state that a pending batch depends on is changed (program, texture contents, ...), and before swapping buffers.
+   */
+  void flush() {
+    if (!draining && !sorter.isEmpty()) {
+      drainSorter();
+    }
+    if (batchKind != BATCH_NONE && stream.getSize(batch) > 0) {
+      int size = stream.getSize(batch);
+      int stride = getStride(batchKind);
+      int first = stream.end(batch) / stride;
+      switch (batchKind) {
+        case BATCH_TEX:
+          gl.useProgram(texProgram);
+          gl.bindVertexArray(texVao);
+          gl.bindTexture(0, batchTexture);
+          glDrawArrays(GL_TRIANGLES, first, size / stride);
+          break;
+        case BATCH_TEX_ARRAY:
+          gl.useProgram(texArrayProgram);
+          gl.bindVertexArray(texVao);
+          gl.bindTexture(0, GL_TEXTURE_2D_ARRAY, batchTexture);
+          glDrawArrays(GL_TRIANGLES, first, size / stride);
+          break;
+        case BATCH_STD:
+          gl.useProgram(program);
+          gl.bindVertexArray(vao);
+          drawInstanced(GL_TRIANGLES, 6, first, size / stride);
+          break;
+        case BATCH_CIRCLE:
+          gl.useProgram(circleProgram);
+          gl.bindVertexArray(circleVao);
+          drawInstanced(GL_TRIANGLE_STRIP, 4, first, size / stride);
+          break;
+        case BATCH_FONT:
+          gl.useProgram(fontProgram);
+          gl.bindVertexArray(fontVao);
+          gl.bindTexture(0, batchTexture);
+          glDrawArrays(GL_TRIANGLES, first, size / stride);
+          break;
+        case BATCH_DISTANCE_FIELD:
+          gl.useProgram(distanceFieldProgram);
+          gl.bindVertexArray(fontVao);
+          gl.bindTexture(0, batchTexture);
+          glDrawArrays(GL_TRIANGLES, first, size / stride);
+          break;
+        case BATCH_UBER:
+          gl.useProgram(uberProgram);
+          gl.bindVertexArray(uberVao);
+          gl.bindTexture(2, GL_TEXTURE_2D_ARRAY, batchArrayTexture);
+          gl.bindTexture(1, batchFontTexture);
+          gl.bindTexture(0, batchTexture);
+          glDrawArrays(GL_TRIANGLES, first, size / stride);
+          break;
+      }
+      drawCalls++;
+    }
+    batchKind = BATCH_NONE;
+    batchTexture = 0;
+    batchArrayTexture = 0;
+    batchFontTexture = 0;
+  }
+  
+  private static void drawInstanced(int mode, int vertices, int firstInstance, int instances) {
+    if (firstInstance == 0) {
+      glDrawArraysInstanced(mode, 0, vertices, instances);
+    } else {
+      // only reached when streaming through a persistent buffer, which requires a GL 4 context
+      glDrawArraysInstancedBaseInstance(mode, 0, vertices, instances, firstInstance);
+    }
+  }
+  
+  private static int getStride(int kind) {
+    switch (kind) {
+      case BATCH_TEX:
+      case BATCH_TEX_ARRAY:
+        return TEX_VERTEX_SIZE;
+      case BATCH_STD:
+        return STD_INSTANCE_SIZE;
+      case BATCH_CIRCLE:
+        return CIRCLE_INSTANCE_SIZE;
+      case BATCH_FONT:
+      case BATCH_DISTANCE_FIELD:
+        return FONT_VERTEX_SIZE;
+      case BATCH_UBER:
+        return UBER_VERTEX_SIZE;
+      default:
+        throw new IllegalArgumentException("Unknown batch kind: " + kind);
     }
-    glUniformMatrix4fv(indexTexTexPosition, false, mat4x4.get(bufferMat4x4));
-    glDrawArrays(GL_TRIANGLES, 0, 6);
   }
   
   @Override
   public float[] getTextPositions(String text, Font font, float size) {
     Objects.requireNonNull(text);
     Objects.requireNonNull(font);
-    float[] sizes = new float[text.length() + 1];
-    try (MemoryStack stack = stackPush()) {
-      FloatBuffer xpos = stack.floats(0);
-      FloatBuffer ypos = stack.floats(0);
-      
-      STBTTAlignedQuad q = STBTTAlignedQuad.mallocStack(stack);
-      
-      FontData fontData = getFontData(font, size);
-      
-      for (int i = 0; i < text.length(); i++) {
-        sizes[i] = xpos.get(0);
-        int c = text.codePointAt(i);
-        int index;
-        int position;
-        if (c < 32) {
-          continue;
-        } else if (c < 128) {
-          index = 0;
-          position = c - 32;
-        } else if (c < 192) {
-          continue;
-        } else if (c < 256) {
-          index = 1;
-          position = c - 192;
-        } else if (c == 8226) {
-          index = 2;
-          position = 0;
-        } else {
-          continue;
-        }
-        stbtt_GetPackedQuad(fontData.charData[index], 1024, 1024, position, xpos, ypos, q, false);
-      }
-      sizes[text.length()] = xpos.get(0);
+    return getGlyphRun(text, font, size).positions.clone();
+  }
+  
+  @Override
+  public float getTextWidth(String text, Font font, float size) {
+    Objects.requireNonNull(text);
+    Objects.requireNonNull(font);
+    return getGlyphRun(text, font, size).getWidth();
+  }
+  
+  @Override
+  public float getTextWidth(CharSequence text, Font font, float size) {
+    if (text instanceof String) {
+      return getTextWidth((String) text, font, size);
     }
-    return sizes;
+    return FontMetrics.getTextWidth(text, font, size);
   }
   
   @Override
-  public FontMetrics getFontMetrics(Font font, float size) {
+  public float getTextPositions(CharSequence text, Font font, float size, float[] positions) {
+    Objects.requireNonNull(positions);
+    return getTextPositions(text, font, size, positions, null);
+  }
+  
+  @Override
+  public float getTextPositions(CharSequence text, Font font, float size, FloatBuffer positions) {
+    Objects.requireNonNull(positions);
+    return getTextPositions(text, font, size, null, positions);
+  }
+  
+  private float getTextPositions(CharSequence text, Font font, float size, float[] positions, FloatBuffer positionsBuffer) {
+    Objects.requireNonNull(text);
     Objects.requireNonNull(font);
-    float[] floats = new float[3];
-    getFontMetrics(font, size, floats);
-    return new FontMetrics(floats[0], floats[1], floats[2]);
+    FontMetrics.checkPositions(text, positions, positionsBuffer);
+    if (text instanceof String) {
+      GlyphRun run = getGlyphRun((String) text, font, size);
+      copyPositions(run.positions, positions, positionsBuffer);
+      return run.getWidth();
+    }
+    return FontMetrics.layout(text, FontFace.get(font), size, positions, positionsBuffer);
   }
   
-  private void getFontMetrics(Font font, float size, float[] metrics) {
-    if (metrics == null || metrics.length == 0) {
-      return;
+  private static void copyPositions(float[] source, float[] positions, FloatBuffer positionsBuffer) {
+    if (positions != null) {
+      System.arraycopy(source, 0, positions, 0, source.length);
+    } else if (positionsBuffer != null) {
+      int position = positionsBuffer.position();
+      for (int i = 0; i < source.length; i++) {
+        positionsBuffer.put(position + i, source[i]);
+      }
+    }
+  }
+  
+  /**
+   * Computes the bounds of the glyphs of a text without allocating, relative to its origin, to the layout fields.
+   * <p>
+   * Pen positions are computed as in {@link FontMetrics#layout(CharSequence, FontFace, float, float[], FloatBuffer)}.
+   */
+  private void layoutBounds(CharSequence text, FontFace face, float size) {
+    float faceScale = face.getScale(size);
+    float scale = distanceField ? size / GlyphAtlas.DISTANCE_FIELD_SIZE : 1;
+    float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+    float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+    float x = 0;
+    int previous = -1;
+    for (int i = 0; i < text.length(); ) {
+      int c = Character.codePointAt(text, i);
+      i += Character.charCount(c);
+      if (c < 32) {
+        previous = -1;
+        continue;
+      }
+      if (previous != -1) {
+        x += face.getKerning(previous, c) * faceScale;
+      }
+      GlyphAtlas.Glyph glyph = distanceField ? glyphAtlas.getDistanceFieldGlyph(face, c) : glyphAtlas.getGlyph(face, size, c);
+      if (glyph.width != 0) {
+        minX = Math.min(minX, x + glyph.x0 * scale);
+        minY = Math.min(minY, glyph.y1 * scale);
+        maxX = Math.max(maxX, x + glyph.x1 * scale);
+        maxY = Math.max(maxY, glyph.y0 * scale);
+      }
+      x += face.getAdvance(c) * faceScale;
+      previous = c;
+    }
+    layoutMinX = minX;
+    layoutMinY = minY;
+    layoutMaxX = maxX;
+    layoutMaxY = maxY;
+  }
+  
+  private GlyphRun getGlyphRun(String text, Font font, float size) {
+    GlyphRun run = glyphRuns.get(text, font, size);
+    if (run != null) {
+      return run;
     }
-    int[] ascent = new int[1];
-    int[] descent = new int[1];
-    int[] lineGap = new int[1];
-    FontData fontData = getFontData(font, size);
-    stbtt_GetFontVMetrics(fontData.info, ascent, descent, lineGap);
-    float scale = stbtt_ScaleForPixelHeight(fontData.info, size);
-    metrics[0] = ascent[0] * scale;
-    if (metrics.length >= 2) {
-      metrics[1] = descent[0] * scale;
-      if (metrics.length >= 3) {
-        metrics[2] = lineGap[0] * scale;
+    run = createGlyphRun(text, font, size);
+    glyphRuns.put(text, font, size, run);
+    return run;
+  }
+  
+  private GlyphRun createGlyphRun(CharSequence text, Font font, float size) {
+    FontFace face = FontFace.get(font);
+    // distance field glyphs have the metrics of the distance field size, and are scaled to the font size
+    float scale = distanceField ? size / GlyphAtlas.DISTANCE_FIELD_SIZE : 1;
+    float[] positions = new float[text.length() + 1];
+    FontMetrics.layout(text, face, size, positions, null);
+    GlyphAtlas.Glyph[] glyphs = new GlyphAtlas.Glyph[text.length()];
+    float[] offsets = new float[text.length()];
+    int glyphCount = 0;
+    for (int i = 0; i < text.length(); ) {
+      int c = Character.codePointAt(text, i);
+      int start = i;
+      i += Character.charCount(c);
+      if (c < 32) {
+        continue;
+      }
+      GlyphAtlas.Glyph glyph = distanceField ? glyphAtlas.getDistanceFieldGlyph(face, c) : glyphAtlas.getGlyph(face, size, c);
+      if (glyph.width != 0) {
+        glyphs[glyphCount] = glyph;
+        offsets[glyphCount] = positions[start];
+        glyphCount++;
       }
     }
+    return new GlyphRun(Arrays.copyOf(glyphs, glyphCount), Arrays.copyOf(offsets, glyphCount), positions, scale);
+  }
+  
+  void prewarmFont(Font font, float[] sizes) {
+    Objects.requireNonNull(font);
+    Objects.requireNonNull(sizes);
+    FontFace face = FontFace.get(font);
+    if (distanceField) {
+      // distance field glyphs are shared by all sizes
+      sizes = new float[]{GlyphAtlas.DISTANCE_FIELD_SIZE};
+    }
+    for (float size : sizes) {
+      // the characters of the common Latin scripts
+      for (int c = 32; c < 0x250; c++) {
+        if (c == 0x7F) {
+          c = 0xA0;
+        }
+        glyphAtlas.prewarm(distanceField ? glyphAtlas.getDistanceFieldGlyph(face, c) : glyphAtlas.getGlyph(face, size, c));
+      }
+    }
+  }
+  
+  @Override
+  public FontMetrics getFontMetrics(Font font, float size) {
+    return FontMetrics.get(font, size);
+  }
+  
+  @Override
+  public void getFontMetrics(Font font, float size, float[] metrics) {
+    FontMetrics.get(font, size, metrics);
   }
   
   @Override
-  public float[] drawText(double x, double y, String text, Font font, double size, boolean xCentered, boolean yCentered, Color color) {
+  protected float drawText(double x, double y, CharSequence text, Font font, double size, boolean xCentered, boolean yCentered, Color color, float[] positions, FloatBuffer positionsBuffer) {
     Objects.requireNonNull(text);
     Objects.requireNonNull(font);
-    float[] sizes = new float[text.length() + 1];
-    try (MemoryStack stack = stackPush()) {
-      FloatBuffer xpos = stack.floats((float) x);
-      FloatBuffer ypos = stack.floats((float) (getHeight() - y));
-      
-      STBTTAlignedQuad q = STBTTAlignedQuad.mallocStack(stack);
-  
-      float floatSize = (float) size;
-      FontData fontData = getFontData(font, floatSize);
-      
-      glUseProgram(fontProgram);
-      glBindVertexArray(fontVao);
-      currentFontColor = setColor(color, currentFontColor, mainFontColor, indexFontColor);
-      
-      glBindTexture(GL_TEXTURE_2D, fontData.texture);
-      
-      float xOffset = 0;
-      float yOffset = 0;
-      
+    FontMetrics.checkPositions(text, positions, positionsBuffer);
+    float floatSize = (float) size;
+    // recorded and sorted draws keep the laid out run, other texts are drawn directly so that reused buffers don't allocate
+    if (text instanceof String || recording != null && !draining || sorting && !draining) {
+      GlyphRun run = getGlyphRun(text.toString(), font, floatSize);
+      copyPositions(run.positions, positions, positionsBuffer);
       if (xCentered) {
-        xOffset = getTextWidth(text, font, floatSize) / 2;
+        x -= run.getWidth() / 2;
       }
-      
       if (yCentered) {
-        int[] ascent = new int[1];
-        int[] descent = new int[1];
-        int[] lineGap = new int[1];
-        stbtt_GetFontVMetrics(fontData.info, ascent, descent, lineGap);
-        yOffset = (descent[0] + ascent[0]) * stbtt_ScaleForPixelHeight(fontData.info, floatSize) / 2;
+        y -= getCenterOffset(font, floatSize);
+      }
+      putGlyphRun(run, x + translateX, y + translateY, color == null ? mainFontColor : color.getRGB());
+      return run.getWidth();
+    }
+    FontFace face = FontFace.get(font);
+    float textWidth = FontMetrics.layout(text, face, floatSize, positions, positionsBuffer);
+    layoutBounds(text, face, floatSize);
+    if (xCentered) {
+      x -= textWidth / 2;
+    }
+    if (yCentered) {
+      y -= getCenterOffset(font, floatSize);
+    }
+    x += translateX;
+    y += translateY;
+    if (layoutMinX > layoutMaxX || isCulled(x + layoutMinX, y + layoutMinY, x + layoutMaxX, y + layoutMaxY)) {
+      return textWidth;
+    }
+    int rgb = color == null ? mainFontColor : color.getRGB();
+    float faceScale = face.getScale(floatSize);
+    float scale = distanceField ? floatSize / GlyphAtlas.DISTANCE_FIELD_SIZE : 1;
+    float penX = 0;
+    int previous = -1;
+    for (int i = 0; i < text.length(); ) {
+      int c = Character.codePointAt(text, i);
+      i += Character.charCount(c);
+      if (c < 32) {
+        previous = -1;
+        continue;
+      }
+      if (previous != -1) {
+        penX += face.getKerning(previous, c) * faceScale;
+      }
+      GlyphAtlas.Glyph glyph = distanceField ? glyphAtlas.getDistanceFieldGlyph(face, c) : glyphAtlas.getGlyph(face, floatSize, c);
+      putGlyph(glyph, x + penX, y, scale, rgb);
+      penX += face.getAdvance(c) * faceScale;
+      previous = c;
+    }
+    return textWidth;
+  }
+  
+  @Override
+  protected void drawParagraph(double x, double y, TextLayout layout, Color color) {
+    Objects.requireNonNull(layout);
+    int lineCount = layout.getLineCount();
+    x += translateX;
+    y += translateY;
+    if (isCulled(x, y - layout.getHeight(), x + layout.getBoxWidth(), y)) {
+      return;
+    }
+    // the runs of the lines are kept by the layout until it is laid out again
+    GlyphRun[] runs = layout.runs;
+    if (runs == null || layout.runsGeneration != textGeneration) {
+      runs = new GlyphRun[lineCount];
+      String text = layout.getText();
+      for (int i = 0; i < lineCount; i++) {
+        runs[i] = createGlyphRun(text.substring(layout.getLineStart(i), layout.getLineEnd(i)), layout.getFont(), layout.getSize());
       }
-      
-      int codepointCount = text.codePointCount(0, text.length());
-      for (int i = 0; i < codepointCount; i++) {
-        sizes[i] = (float) (xpos.get(0) - x);
-        int c = text.codePointAt(i);
-        int index;
-        int position;
-        if (c < 32) {
-          continue;
-        } else if (c < 128) {
-          index = 0;
-          position = c - 32;
-        } else if (c < 192) {
-          continue;
-        } else if (c < 256) {
-          index = 1;
-          position = c - 192;
-        } else if (c == 8226) {
-          index = 2;
-          position = 0;
-        } else {
-          continue;
+      layout.runs = runs;
+      layout.runsGeneration = textGeneration;
+    }
+    int rgb = color == null ? mainFontColor : color.getRGB();
+    for (int i = 0; i < lineCount; i++) {
+      putGlyphRun(runs[i], x + layout.getLineX(i), y + layout.getLineBaseline(i), rgb);
+    }
+  }
+  
+  private float getCenterOffset(Font font, float size) {
+    FontFace face = FontFace.get(font);
+    return (face.ascent + face.descent) * face.getScale(size) / 2;
+  }
+  
+  private void putGlyphRun(GlyphRun run, double x, double y, int rgb) {
+    if (run.glyphs.length == 0 || isCulled(x + run.minX, y + run.minY, x + run.maxX, y + run.maxY)) {
+      return;
+    }
+    if (recording != null && !draining) {
+      recording.text(run, x, y, rgb);
+    }
+    GlyphAtlas.Glyph[] glyphs = run.glyphs;
+    int kind = glyphs[0].distanceField ? BATCH_DISTANCE_FIELD : BATCH_FONT;
+    if (sorting && !draining) {
+      // the glyphs are resolved now so that they aren't evicted before the sorted draws are emitted
+      int texture = 0;
+      for (GlyphAtlas.Glyph glyph : glyphs) {
+        GlyphAtlas.Glyph drawn = glyphAtlas.resolve(glyph);
+        if (drawn != null && texture == 0) {
+          texture = drawn.page.texture;
         }
-        stbtt_GetPackedQuad(fontData.charData[index], 1024, 1024, position, xpos, ypos, q, false);
-        
-        glUniform4f(indexFontFontPosition, (float) ((translateX + q.x0() - xOffset) * 2 / width) - 1,
-                (float) ((translateY + getHeight() - q.y0() - yOffset) * 2 / height) - 1,
-                (float) ((translateX + q.x1() - xOffset) * 2 / width) - 1,
-                (float) ((translateY + getHeight() - q.y1() - yOffset) * 2 / height) - 1);
-        glUniform4f(indexFontImagePosition, q.s0(), q.t0(), q.s1(), q.t1());
-        glDrawArrays(GL_TRIANGLES, 0, 6);
       }
-      sizes[text.length()] = (float) (xpos.get(0) - x);
+      sorter.add(unified ? BATCH_UBER : kind, texture, x + run.minX, y + run.minY, x + run.maxX, y + run.maxY);
+      sorter.commands.text(run, x, y, rgb);
+      return;
+    }
+    for (int i = 0; i < glyphs.length; i++) {
+      putGlyph(glyphs[i], x + run.offsets[i], y, run.scale, rgb);
+    }
+  }
+  
+  /**
+   * Draws a glyph at a pen position, its metrics scaled by the specified scale.
+   */
+  private void putGlyph(GlyphAtlas.Glyph glyph, double x, double y, float scale, int rgb) {
+    // a glyph still being rasterized is drawn scaled from the glyph of another font size, or not drawn
+    GlyphAtlas.Glyph drawn = glyphAtlas.resolve(glyph);
+    if (drawn == null) {
+      return;
     }
-    return sizes;
+    float glyphScale = scale * glyph.size / drawn.size;
+    double x0 = x + drawn.x0 * glyphScale;
+    double y0 = y + drawn.y0 * glyphScale;
+    double x1 = x + drawn.x1 * glyphScale;
+    double y1 = y + drawn.y1 * glyphScale;
+    float s0 = drawn.s0;
+    float t0 = drawn.t0;
+    float s1 = drawn.s1;
+    float t1 = drawn.t1;
+    // consecutive glyphs are usually in the same page, a text only breaks the batch where it changes page
+    int texture = drawn.page.texture;
+    int uberKind = glyph.distanceField ? UBER_GLYPH_DISTANCE : UBER_GLYPH;
+    if (unified) {
+      prepareUber(0, 0, texture, 6 * UBER_VERTEX_SIZE);
+    } else {
+      prepareBatch(glyph.distanceField ? BATCH_DISTANCE_FIELD : BATCH_FONT, texture, 6 * FONT_VERTEX_SIZE);
+    }
+    putFontVertex(x0, y0, s0, t0, rgb, uberKind);
+    putFontVertex(x1, y0, s1, t0, rgb, uberKind);
+    putFontVertex(x1, y1, s1, t1, rgb, uberKind);
+    putFontVertex(x0, y0, s0, t0, rgb, uberKind);
+    putFontVertex(x0, y1, s0, t1, rgb, uberKind);
+    putFontVertex(x1, y1, s1, t1, rgb, uberKind);
   }
   
-  private int setColor(Color color, int current, int main, int index) {
-    int rgb = color == null ? main : color.getRGB();
-    if (current == rgb) { return current; }
-    glUniform3f(index, ((rgb >> 16) & 0xFF) / 256f, ((rgb >> 8) & 0xFF) / 256f, (rgb & 0xFF) / 256f);
-    return rgb;
+  private void putFontVertex(double x, double y, float s, float t, int rgb, int uberKind) {
+    if (unified) {
+      putUberVertex(x, y, s, t, rgb, uberKind, 0);
+      return;
+    }
+    batch.putFloat((float) (x * 2 / width) - 1).putFloat((float) (y * 2 / height) - 1).putFloat(s).putFloat(t);
+    putColor(rgb);
   }
   
   @Override
   public void setColor(Color color) {
     if (color == null) { return; }
-    int rgb = color.getRGB();
+    setMainColor(color.getRGB());
+  }
+  
+  private void setMainColor(int rgb) {
+    if (recording != null) {
+      recording.color(rgb);
+    }
     mainStdColor = rgb;
     mainCircleColor = rgb;
     mainFontColor = rgb;
@@ -1069,43 +2169,15 @@ final class Window extends Drawer {
     }
   }
   
-  private static final class FontKey {
-    final Font font;
-    final float size;
-    
-    FontKey(Font font, float size) {
-      this.font = font;
-      this.size = size;
-    }
-    
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) {
-        return true;
-      }
-      if (o == null || getClass() != o.getClass()) {
-        return false;
-      }
-      FontKey fontKey = (FontKey) o;
-      return Float.compare(fontKey.size, size) == 0 &&
-              font == fontKey.font;
-    }
-    
-    @Override
-    public int hashCode() {
-      return Objects.hash(font, size);
-    }
-  }
-  
-  private static final class FontData {
-    final int texture;
-    final STBTTPackedchar.Buffer[] charData;
-    final STBTTFontinfo info;
+  private static final class PendingUpload {
+    final Texture texture;
+    final int pixelBuffer;
+    final long fence;
     
-    FontData(int texture, STBTTPackedchar.Buffer[] charData, STBTTFontinfo info) {
+    PendingUpload(Texture texture, int pixelBuffer, long fence) {
       this.texture = texture;
-      this.charData = charData;
-      this.info = info;
+      this.pixelBuffer = pixelBuffer;
+      this.fence = fence;
     }
   }
 }
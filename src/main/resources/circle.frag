@@ -2,16 +2,16 @@
 
 const float gamma = 1/2.2;
 
-uniform float minLength;
-uniform vec3 color;
 in vec2 mapping;
+flat in float minLength_;
+flat in vec4 color_;
 
 out vec4 outputColor;
 
 void main()
 {
     float lensqr = dot(mapping, mapping);
-    if(lensqr > 1.0 || lensqr < minLength)
+    if(lensqr > 1.0 || lensqr < minLength_)
         discard;
-    outputColor = pow(vec4(color, 1.0), vec4(gamma, gamma, gamma, 1.0));
+    outputColor = pow(color_, vec4(gamma, gamma, gamma, 1.0));
 }
@@ -1,35 +1,39 @@
 # version 330 core
 
-uniform vec4 circle;
+layout(location = 0) in vec2 center;
+layout(location = 1) in float radius;
+layout(location = 2) in float minLength;
+layout(location = 3) in vec4 color;
+
+uniform vec2 screenSize;
 
 out vec2 mapping;
+flat out float minLength_;
+flat out vec4 color_;
 
 void main()
 {
-    vec2 offset;
     switch(gl_VertexID)
     {
     case 0:
         //Bottom-left
         mapping = vec2(-1.0, -1.0);
-        offset = vec2(-circle.z, -circle.w);
         break;
     case 1:
         //Top-left
         mapping = vec2(-1.0, 1.0);
-        offset = vec2(-circle.z, circle.w);
         break;
     case 2:
         //Bottom-right
         mapping = vec2(1.0, -1.0);
-        offset = vec2(circle.z, -circle.w);
         break;
     case 3:
         //Top-right
         mapping = vec2(1.0, 1.0);
-        offset = vec2(circle.z, circle.w);
         break;
     }
 
-    gl_Position = vec4((offset + circle.xy), 0.0, 1.0);
+    minLength_ = minLength;
+    color_ = color;
+    gl_Position = vec4((center + mapping * radius) * 2.0 / screenSize - 1.0, 0.0, 1.0);
 }
@@ -1,12 +1,14 @@
 # version 330 core
 
-in vec2 position;
+layout(location = 0) in vec2 position;
+layout(location = 1) in vec2 texPosition;
+layout(location = 2) in vec4 color;
 out vec2 position_;
-
-uniform vec4 fontPosition;
+out vec4 color_;
 
 void main()
 {
-  gl_Position = vec4(mix(fontPosition.xy, fontPosition.zw, position + vec2(0.5,0.5)), 0.0, 1.0);
-  position_ = position;
+  gl_Position = vec4(position, 0.0, 1.0);
+  position_ = texPosition;
+  color_ = color;
 }
@@ -0,0 +1,16 @@
+# version 330 core
+
+in vec2 position_;
+in vec4 color_;
+
+uniform sampler2D s;
+out vec4 outputColor;
+
+void main()
+{
+  // the field is 0.5 on the glyph outline, antialiased over about one screen pixel at any scale
+  float distance = texture(s, position_).r;
+  float width = fwidth(distance) * 0.5;
+  float tex = smoothstep(0.5 - width, 0.5 + width, distance);
+  outputColor = vec4(color_.rgb, color_.a * tex);
+}
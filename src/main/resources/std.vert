@@ -1,10 +1,20 @@
 # version 330 core
 
-in vec2 position;
+layout(location = 0) in vec2 position;
+layout(location = 1) in vec2 center;
+layout(location = 2) in vec2 size;
+layout(location = 3) in float angle;
+layout(location = 4) in vec4 color;
+out vec4 color_;
 
-uniform mat4 matrix;
+uniform vec2 screenSize;
 
 void main()
 {
-  gl_Position = matrix * vec4(position, 0.0, 1.0);
+  vec2 scaled = position * size;
+  float c = cos(angle);
+  float s = sin(angle);
+  vec2 pixel = center + vec2(c * scaled.x - s * scaled.y, s * scaled.x + c * scaled.y);
+  gl_Position = vec4(pixel * 2.0 / screenSize - 1.0, 0.0, 1.0);
+  color_ = color;
 }
@@ -1,14 +1,13 @@
 # version 330 core
 
 in vec2 position_;
+in float alpha_;
 
 uniform sampler2D s;
 out vec4 outputColor;
 
-uniform float alpha;
-
 void main()
 {
   vec4 tex = texture(s, position_);
-  outputColor = vec4(tex.xyz, tex.a * alpha);
+  outputColor = vec4(tex.xyz, tex.a * alpha_);
 }
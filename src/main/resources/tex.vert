@@ -1,13 +1,17 @@
 # version 330 core
 
-in vec2 position;
+layout(location = 0) in vec2 position;
+layout(location = 1) in vec2 texPosition;
+layout(location = 2) in float alpha;
+layout(location = 3) in float layer;
 out vec2 position_;
-
-uniform mat4 screenPosition;
-uniform mat4 texPosition;
+out float alpha_;
+flat out float layer_;
 
 void main()
 {
-  gl_Position = screenPosition * vec4(position, 0.0, 1.0);
-  position_ = (texPosition * vec4(position, 0.0, 1.0)).xy;
+  gl_Position = vec4(position, 0.0, 1.0);
+  position_ = texPosition;
+  alpha_ = alpha;
+  layer_ = layer;
 }
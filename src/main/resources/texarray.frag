@@ -0,0 +1,14 @@
+# version 330 core
+
+in vec2 position_;
+in float alpha_;
+flat in float layer_;
+
+uniform sampler2DArray s;
+out vec4 outputColor;
+
+void main()
+{
+  vec4 tex = texture(s, vec3(position_, layer_));
+  outputColor = vec4(tex.xyz, tex.a * alpha_);
+}
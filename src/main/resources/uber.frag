@@ -0,0 +1,46 @@
+# version 330 core
+
+const float gamma = 1/2.2;
+const int SOLID = 0;
+const int CIRCLE = 1;
+const int IMAGE = 2;
+const int GLYPH = 3;
+const int IMAGE_ARRAY = 4;
+const int GLYPH_DISTANCE = 5;
+
+in vec2 position_;
+in vec4 color_;
+flat in int kind_;
+flat in float minLength_;
+
+uniform sampler2D image;
+uniform sampler2D glyphs;
+uniform sampler2DArray images;
+out vec4 outputColor;
+
+void main()
+{
+  if (kind_ == IMAGE) {
+    vec4 tex = texture(image, position_);
+    outputColor = vec4(tex.xyz, tex.a * color_.a);
+  } else if (kind_ == IMAGE_ARRAY) {
+    // the layer is passed instead of the inner radius ratio
+    vec4 tex = texture(images, vec3(position_, minLength_));
+    outputColor = vec4(tex.xyz, tex.a * color_.a);
+  } else if (kind_ == GLYPH) {
+    float tex = texture(glyphs, position_).r;
+    outputColor = vec4(color_.rgb, color_.a * tex);
+  } else if (kind_ == GLYPH_DISTANCE) {
+    float distance = texture(glyphs, position_).r;
+    float width = fwidth(distance) * 0.5;
+    float tex = smoothstep(0.5 - width, 0.5 + width, distance);
+    outputColor = vec4(color_.rgb, color_.a * tex);
+  } else {
+    if (kind_ == CIRCLE) {
+      float lensqr = dot(position_, position_);
+      if (lensqr > 1.0 || lensqr < minLength_)
+        discard;
+    }
+    outputColor = pow(color_, vec4(gamma, gamma, gamma, 1.0));
+  }
+}
@@ -0,0 +1,20 @@
+# version 330 core
+
+layout(location = 0) in vec2 position;
+layout(location = 1) in vec2 texPosition;
+layout(location = 2) in vec4 color;
+// x: primitive kind, y: squared inner radius ratio (rings) or layer (array images)
+layout(location = 3) in vec2 shape;
+out vec2 position_;
+out vec4 color_;
+flat out int kind_;
+flat out float minLength_;
+
+void main()
+{
+  gl_Position = vec4(position, 0.0, 1.0);
+  position_ = texPosition;
+  color_ = color;
+  kind_ = int(shape.x + 0.5);
+  minLength_ = shape.y;
+}